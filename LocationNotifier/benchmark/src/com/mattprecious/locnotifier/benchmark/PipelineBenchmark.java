@@ -0,0 +1,373 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.benchmark;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.mattprecious.locnotifier.core.EntryProbability;
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.FixComparator;
+import com.mattprecious.locnotifier.core.GeoMath;
+import com.mattprecious.locnotifier.core.Geofence;
+import com.mattprecious.locnotifier.core.GeofenceRegistry;
+import com.mattprecious.locnotifier.core.KalmanFixFilter;
+import com.mattprecious.locnotifier.core.PipelineMetrics;
+import com.mattprecious.locnotifier.core.Trace;
+import com.mattprecious.locnotifier.core.TraceReplayer;
+import com.mattprecious.locnotifier.core.TrackingStateMachine;
+import com.mattprecious.locnotifier.core.TriggerEvaluator;
+
+/**
+ * Replays traces through the code that runs on every location callback and reports throughput
+ * and allocation per fix. Each trace is also replayed against a single geofence, once with raw
+ * fixes, once smoothed, once with GPS tiered by a {@link TrackingStateMachine} and once more
+ * behind the low power pre-stage, to report trigger latency, false triggers and GPS on-time.
+ * This runs on a desktop JVM against the core package, outside of the Android build:
+ * 
+ * <pre>
+ * javac -d out $(find src/com/mattprecious/locnotifier/core benchmark/src -name '*.java')
+ * java -cp out com.mattprecious.locnotifier.benchmark.PipelineBenchmark [key=value ...]
+ * </pre>
+ * 
+ * Keys are rates (fixes per second), gps (fraction of GPS fixes), geofences (counts), fixes
+ * (fixes measured per run) and trace (a recorded trace file to use instead of a synthetic one).
+ * Lists are comma separated.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class PipelineBenchmark {
+    private static final int WARMUP_RUNS = 3;
+
+    private final Trace trace;
+    private final int fixCount;
+
+    private final Fix scratch = new Fix();
+    private final Fix previous = new Fix();
+
+    // keeps results alive so the JIT can't drop the work
+    private long sink;
+
+    public PipelineBenchmark(Trace trace, int fixCount) {
+        this.trace = trace;
+        this.fixCount = fixCount;
+    }
+
+    public static void main(String[] args) throws IOException {
+        float[] rates = { 1, 10 };
+        float[] gpsFractions = { 0, 0.5f, 1 };
+        int[] geofenceCounts = { 1, 100, 1000, 10000 };
+        int fixCount = 1000000;
+        String tracePath = null;
+
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+
+            String key = arg.substring(0, split);
+            String value = arg.substring(split + 1);
+
+            if (key.equals("rates")) {
+                rates = parseFloats(value);
+            } else if (key.equals("gps")) {
+                gpsFractions = parseFloats(value);
+            } else if (key.equals("geofences")) {
+                float[] counts = parseFloats(value);
+                geofenceCounts = new int[counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    geofenceCounts[i] = (int) counts[i];
+                }
+            } else if (key.equals("fixes")) {
+                fixCount = Integer.parseInt(value);
+            } else if (key.equals("trace")) {
+                tracePath = value;
+            } else {
+                throw new IllegalArgumentException("Unknown key " + key);
+            }
+        }
+
+        System.out.println(String.format("%-11s %6s %5s %9s %14s %10s", "stage", "rate", "gps",
+                "geofences", "ops/s", "bytes/op"));
+
+        if (tracePath != null) {
+            FileReader reader = new FileReader(tracePath);
+            try {
+                run(Trace.read(reader), fixCount, "-", "-", geofenceCounts);
+            } finally {
+                reader.close();
+            }
+
+            return;
+        }
+
+        for (float rate : rates) {
+            for (float gps : gpsFractions) {
+                // 20km trip at highway speed
+                Trace trace = Trace.synthesize(43.6, -79.6, 43.78, -79.6, 27, rate, gps, 42);
+                run(trace, fixCount, String.valueOf(rate), String.valueOf(gps), geofenceCounts);
+            }
+        }
+    }
+
+    private static void run(Trace trace, int fixCount, String rate, String gps,
+            int[] geofenceCounts) {
+        PipelineBenchmark benchmark = new PipelineBenchmark(trace, fixCount);
+
+        print("compare", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runCompare();
+            }
+        }));
+
+        print("distance", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runDistance();
+            }
+        }));
+
+        print("format", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runFormat();
+            }
+        }));
+
+        print("probability", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runProbability();
+            }
+        }));
+
+        final PipelineMetrics metrics = new PipelineMetrics();
+        print("metrics", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runMetrics(metrics);
+            }
+        }));
+
+        final KalmanFixFilter filter = new KalmanFixFilter();
+        print("smooth", rate, gps, "-", benchmark.measure(new Stage() {
+            @Override
+            public void run(PipelineBenchmark b) {
+                b.runSmooth(filter);
+            }
+        }));
+
+        for (int count : geofenceCounts) {
+            final TriggerEvaluator evaluator = new TriggerEvaluator(createRegistry(trace, count));
+
+            print("evaluate", rate, gps, String.valueOf(count), benchmark.measure(new Stage() {
+                @Override
+                public void run(PipelineBenchmark b) {
+                    b.runEvaluate(evaluator);
+                }
+            }));
+        }
+
+        TraceReplayer.Result raw = TraceReplayer.replay(trace,
+                createRegistry(trace, 1, Geofence.FILTER_NONE));
+        System.out.println("  replay raw:      " + raw);
+
+        TraceReplayer.Result smoothed = TraceReplayer.replay(trace,
+                createRegistry(trace, 1, Geofence.FILTER_SMOOTHED));
+        System.out.println("  replay smoothed: " + smoothed);
+
+        TraceReplayer.Result tiered = TraceReplayer.replay(trace,
+                new TriggerEvaluator(createRegistry(trace, 1, Geofence.FILTER_NONE)),
+                new TrackingStateMachine());
+        System.out.println("  replay tiered:   " + tiered);
+
+        TraceReplayer.Result preStaged = TraceReplayer.replay(trace,
+                new TriggerEvaluator(createRegistry(trace, 1, Geofence.FILTER_NONE)),
+                new TrackingStateMachine(), true);
+        System.out.println("  replay prestage: " + preStaged);
+    }
+
+    private double[] measure(Stage stage) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            stage.run(this);
+        }
+
+        long bytesBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        stage.run(this);
+
+        long elapsed = System.nanoTime() - start;
+        long bytes = getAllocatedBytes() - bytesBefore;
+
+        return new double[] { fixCount * 1E9 / elapsed, (double) bytes / fixCount, };
+    }
+
+    private void runCompare() {
+        previous.set(trace.get(0));
+        for (int i = 0; i < fixCount; i++) {
+            Fix fix = next(i);
+            if (FixComparator.isBetter(fix, previous)) {
+                previous.set(fix);
+                sink++;
+            }
+        }
+    }
+
+    private void runDistance() {
+        Fix destination = trace.get(trace.size() - 1);
+        for (int i = 0; i < fixCount; i++) {
+            Fix fix = next(i);
+            sink += (long) GeoMath.distance(fix, destination);
+        }
+    }
+
+    private void runFormat() {
+        Fix destination = trace.get(trace.size() - 1);
+        for (int i = 0; i < fixCount; i++) {
+            Fix fix = next(i);
+
+            // mirrors LocationService.updateRunningNotification
+            String distance = String.format("%dm", Math.round(GeoMath.distance(fix, destination)));
+            sink += String.format("%s until destination\u2026", distance).length();
+        }
+    }
+
+    private void runProbability() {
+        Fix destination = trace.get(trace.size() - 1);
+        for (int i = 0; i < fixCount; i++) {
+            Fix fix = next(i);
+            float distance = GeoMath.distance(fix, destination);
+            sink += (long) (EntryProbability.inside(distance, 200, fix.getAccuracy()) * 100);
+        }
+    }
+
+    private void runMetrics(PipelineMetrics metrics) {
+        for (int i = 0; i < fixCount; i++) {
+            Fix fix = next(i);
+
+            // mirrors the recording LocationService does around every fix
+            long start = System.nanoTime();
+            metrics.recordLatency(PipelineMetrics.STAGE_FILTER, fix.getProvider(),
+                    fix.getAccuracy(), System.nanoTime() - start);
+            metrics.recordFix(fix.getProvider(), fix.getAccuracy(),
+                    TriggerEvaluator.RESULT_ACCEPTED);
+        }
+
+        sink += metrics.getHistogram(PipelineMetrics.STAGE_FILTER, Fix.PROVIDER_GPS, 0).getCount();
+    }
+
+    private void runSmooth(KalmanFixFilter filter) {
+        filter.reset();
+        for (int i = 0; i < fixCount; i++) {
+            sink += filter.filter(next(i)).getTime();
+        }
+    }
+
+    private void runEvaluate(TriggerEvaluator evaluator) {
+        for (int i = 0; i < fixCount; i++) {
+            sink += evaluator.evaluate(next(i));
+        }
+    }
+
+    /**
+     * Returns fix i of an endless replay of the trace, shifting the time on each lap so fixes keep
+     * moving forward
+     */
+    private Fix next(int i) {
+        Fix fix = trace.get(i % trace.size());
+        long lap = i / trace.size();
+        long duration = trace.get(trace.size() - 1).getTime() - trace.get(0).getTime() + 1000;
+
+        scratch.set(fix.getTime() + lap * duration, fix.getLatitude(), fix.getLongitude(),
+                fix.getAccuracy(), fix.getProvider());
+        scratch.setSpeed(fix.getSpeed());
+        scratch.setBearing(fix.getBearing());
+
+        return scratch;
+    }
+
+    /**
+     * Scatters geofences within about 50km of the trace, keeping the last one on the trace's end
+     * point
+     */
+    private static GeofenceRegistry createRegistry(Trace trace, int count) {
+        return createRegistry(trace, count, Geofence.FILTER_NONE);
+    }
+
+    private static GeofenceRegistry createRegistry(Trace trace, int count, int filter) {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        Random random = new Random(count);
+
+        Fix start = trace.get(0);
+        Fix end = trace.get(trace.size() - 1);
+
+        for (int i = 0; i < count - 1; i++) {
+            double lat = start.getLatitude() + (random.nextDouble() - 0.5);
+            double lng = start.getLongitude() + (random.nextDouble() - 0.5);
+            float radius = 100 + random.nextFloat() * 900;
+
+            registry.add(new Geofence(i + 1, GeoMath.toE6(lat), GeoMath.toE6(lng), radius, filter));
+        }
+
+        registry.add(new Geofence(0, end.getLatitudeE6(), end.getLongitudeE6(), 200, filter));
+
+        return registry;
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+                    .currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    private static void print(String stage, String rate, String gps, String geofences,
+            double[] result) {
+        System.out.println(String.format(Locale.US, "%-11s %6s %5s %9s %14.0f %10.1f", stage,
+                rate, gps, geofences, result[0], result[1]));
+    }
+
+    private static float[] parseFloats(String value) {
+        List<Float> list = new ArrayList<Float>();
+        for (String part : value.split(",")) {
+            list.add(Float.parseFloat(part.trim()));
+        }
+
+        float[] result = new float[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+
+        return result;
+    }
+
+    private interface Stage {
+        void run(PipelineBenchmark benchmark);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.benchmark;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.mattprecious.locnotifier.core.PlaceIndex;
+
+/**
+ * Builds a {@link PlaceIndex} and reports its size, how long it takes to save and load, and
+ * prefix lookup latency by prefix length, biased and unbiased. Runs next to
+ * {@link PipelineBenchmark}:
+ * 
+ * <pre>
+ * java -Xmx1g -cp out com.mattprecious.locnotifier.benchmark.PlaceIndexBenchmark [key=value ...]
+ * </pre>
+ * 
+ * Keys are entries (size of the synthetic gazetteer, 1M by default), lookups (per prefix length)
+ * and gazetteer (a CSV or GeoNames file to index instead).
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class PlaceIndexBenchmark {
+    private static final String[] SYLLABLES = { "ba", "ber", "bro", "ca", "char", "dal", "den",
+            "el", "field", "for", "gan", "ham", "har", "ing", "ka", "ken", "la", "lin", "ma",
+            "mont", "na", "new", "or", "port", "ra", "ridge", "san", "ster", "ta", "ton", "ville",
+            "wood", };
+
+    public static void main(String[] args) throws IOException {
+        int entries = 1000000;
+        int lookups = 10000;
+        String gazetteer = null;
+
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+
+            String key = arg.substring(0, split);
+            String value = arg.substring(split + 1);
+
+            if (key.equals("entries")) {
+                entries = Integer.parseInt(value);
+            } else if (key.equals("lookups")) {
+                lookups = Integer.parseInt(value);
+            } else if (key.equals("gazetteer")) {
+                gazetteer = value;
+            } else {
+                throw new IllegalArgumentException("Unknown key " + key);
+            }
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        long start = System.nanoTime();
+        PlaceIndex index;
+        if (gazetteer != null) {
+            FileReader reader = new FileReader(gazetteer);
+            try {
+                index = PlaceIndex.importGazetteer(reader);
+            } finally {
+                reader.close();
+            }
+        } else {
+            index = synthesize(entries, 42);
+        }
+        long buildTime = System.nanoTime() - start;
+
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        System.out.println(String.format(Locale.US, "entries %d, built in %d ms", index.size(),
+                buildTime / 1000000));
+        System.out.println(String.format(Locale.US, "arrays %.1f MB, heap %.1f MB",
+                index.getMemoryBytes() / 1048576.0, (heapAfter - heapBefore) / 1048576.0));
+
+        File file = File.createTempFile("places", ".idx");
+        try {
+            start = System.nanoTime();
+            index.save(file);
+            long saveTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            index = PlaceIndex.load(file);
+            long loadTime = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.US, "file %.1f MB, saved in %d ms, loaded in "
+                    + "%d ms", file.length() / 1048576.0, saveTime / 1000000, loadTime / 1000000));
+        } finally {
+            file.delete();
+        }
+
+        System.out.println(String.format("%-6s %-8s %10s %10s %10s", "prefix", "bias", "p50 us",
+                "p99 us", "max us"));
+
+        for (int length = 1; length <= 8; length++) {
+            measure(index, length, lookups, false);
+            measure(index, length, lookups, true);
+        }
+    }
+
+    /**
+     * Places with made up names spread over North America, populations falling off like a
+     * power law
+     */
+    private static PlaceIndex synthesize(int entries, long seed) {
+        Random random = new Random(seed);
+        PlaceIndex.Builder builder = new PlaceIndex.Builder();
+        StringBuilder name = new StringBuilder();
+
+        for (int i = 0; i < entries; i++) {
+            name.setLength(0);
+
+            int syllables = 2 + random.nextInt(3);
+            for (int j = 0; j < syllables; j++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+
+            if (random.nextInt(4) == 0) {
+                name.append(random.nextBoolean() ? " Falls" : " Heights");
+            }
+
+            double latitude = 25 + random.nextDouble() * 30;
+            double longitude = -125 + random.nextDouble() * 60;
+            int population = (int) (100 / Math.pow(1 - random.nextDouble() * 0.9999, 1.2));
+
+            builder.add(name.toString(), null, latitude, longitude, population);
+        }
+
+        return builder.build();
+    }
+
+    private static void measure(PlaceIndex index, int length, int lookups, boolean biased) {
+        Random random = new Random(length);
+        String[] prefixes = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            StringBuilder prefix = new StringBuilder();
+            while (prefix.length() < length) {
+                prefix.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            prefixes[i] = prefix.substring(0, length);
+        }
+
+        double latitude = biased ? 43.65 : Double.NaN;
+        double longitude = biased ? -79.38 : Double.NaN;
+
+        // warm up
+        long sink = 0;
+        for (int i = 0; i < lookups; i++) {
+            sink += index.search(prefixes[i], latitude, longitude, 10).size();
+        }
+
+        long[] times = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            long start = System.nanoTime();
+            List<PlaceIndex.Result> results = index.search(prefixes[i], latitude, longitude, 10);
+            times[i] = System.nanoTime() - start;
+
+            sink += results.size();
+        }
+
+        Arrays.sort(times);
+        System.out.println(String.format(Locale.US, "%-6d %-8s %10.1f %10.1f %10.1f %s", length,
+                biased ? "location" : "none", times[lookups / 2] / 1000.0,
+                times[lookups * 99 / 100] / 1000.0, times[lookups - 1] / 1000.0,
+                sink > 0 ? "" : "-"));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mattprecious.locnotifier.core.WebhookDispatcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Drives a {@link WebhookDispatcher} against a stand-in HTTP server on localhost and reports
+ * what the server saw. The server fails the first few requests and can be slowed down, to show
+ * retries, batching and the bounded queue dropping events. Runs next to {@link PipelineBenchmark}:
+ * 
+ * <pre>
+ * java -cp out com.mattprecious.locnotifier.benchmark.WebhookStandIn
+ * </pre>
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class WebhookStandIn implements HttpHandler {
+    private final int failFirst;
+    private final long delay;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> bodies = new ArrayList<String>();
+
+    public WebhookStandIn(int failFirst, long delay) {
+        this.failFirst = failFirst;
+        this.delay = delay;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // every event is sent, in batches, after riding out two server errors
+        run("retry", 2, 0, 64, 40);
+
+        // a slow server backs the queue up until new events are dropped
+        run("overflow", 0, 500, 8, 40);
+    }
+
+    private static void run(String name, int failFirst, long delay, int capacity, int events)
+            throws Exception {
+        WebhookStandIn standIn = new WebhookStandIn(failFirst, delay);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hook", standIn);
+        server.start();
+
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/hook");
+            WebhookDispatcher dispatcher = new WebhookDispatcher(url, capacity,
+                    WebhookDispatcher.DEFAULT_MAX_BATCH, WebhookDispatcher.DEFAULT_BATCH_WINDOW,
+                    WebhookDispatcher.DEFAULT_MAX_ATTEMPTS, 100);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                dispatcher.enqueue("{\"event\":\"arrival\",\"seq\":" + i + "}");
+            }
+            long enqueued = System.nanoTime() - start;
+
+            boolean idle = dispatcher.awaitIdle(30000);
+            dispatcher.shutdown();
+
+            System.out.println(name + ": " + dispatcher + " idle=" + idle + " requests="
+                    + standIn.requests.get() + " accepted batches=" + standIn.getBodies().size()
+                    + " enqueue " + enqueued / events + "ns/event");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        StringBuilder body = new StringBuilder();
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.append(new String(buffer, 0, read, "UTF-8"));
+        }
+        in.close();
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int status = (requests.incrementAndGet() <= failFirst) ? 503 : 204;
+        if (status == 204) {
+            synchronized (bodies) {
+                bodies.add(body.toString());
+            }
+        }
+
+        exchange.sendResponseHeaders(status, -1);
+        OutputStream out = exchange.getResponseBody();
+        out.close();
+    }
+
+    private List<String> getBodies() {
+        synchronized (bodies) {
+            return new ArrayList<String>(bodies);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class EntryProbabilityTest {
+    // accuracy that makes sigma exactly 10m
+    private static final float ACCURACY = 15.096f;
+    private static final float RADIUS = 200;
+
+    @Test
+    public void exactFixIsAllOrNothing() {
+        assertEquals(1, EntryProbability.inside(200, RADIUS, 0), 0);
+        assertEquals(0, EntryProbability.inside(200.1f, RADIUS, 0), 0);
+    }
+
+    @Test
+    public void onTheEdgeIsEven() {
+        assertEquals(0.5, EntryProbability.inside(RADIUS, RADIUS, ACCURACY), 1E-3);
+    }
+
+    @Test
+    public void oneSigmaInside() {
+        assertEquals(0.8413, EntryProbability.inside(RADIUS - 10, RADIUS, ACCURACY), 1E-3);
+        assertEquals(0.1587, EntryProbability.inside(RADIUS + 10, RADIUS, ACCURACY), 1E-3);
+    }
+
+    @Test
+    public void tableEdges() {
+        // four sigma and beyond are clamped
+        assertEquals(0, EntryProbability.inside(RADIUS + 40, RADIUS, ACCURACY), 0);
+        assertEquals(0, EntryProbability.inside(RADIUS + 1000, RADIUS, ACCURACY), 0);
+        assertEquals(1, EntryProbability.inside(RADIUS - 40, RADIUS, ACCURACY), 0);
+        assertEquals(1, EntryProbability.inside(0, RADIUS, ACCURACY), 0);
+
+        // just inside the table on either side, the last entries are read without overrunning
+        float low = EntryProbability.inside(RADIUS + 39.99f, RADIUS, ACCURACY);
+        float high = EntryProbability.inside(RADIUS - 39.99f, RADIUS, ACCURACY);
+        assertTrue(low > 0 && low < 1E-4);
+        assertTrue(high < 1 && high > 1 - 1E-4);
+    }
+
+    @Test
+    public void symmetricAndFallingWithDistance() {
+        float previous = 1;
+        for (float d = -45; d <= 45; d += 0.37f) {
+            float p = EntryProbability.inside(RADIUS + d, RADIUS, ACCURACY);
+
+            assertTrue(p <= previous);
+            assertEquals(1, p + EntryProbability.inside(RADIUS - d, RADIUS, ACCURACY), 1E-4);
+
+            previous = p;
+        }
+    }
+}
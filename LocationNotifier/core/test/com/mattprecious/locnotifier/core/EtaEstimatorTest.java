@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class EtaEstimatorTest {
+    private static final long SECOND = 1000;
+    private static final double LAT = 43.65;
+    private static final double LNG = -79.38;
+
+    // 100m radius, 1100m north of the start
+    private static final Geofence GEOFENCE = new Geofence(1, GeoMath.toE6(LAT + 1100
+            / GeoMath.METERS_PER_DEGREE), GeoMath.toE6(LNG), 100);
+
+    private static Fix north(long time, double meters) {
+        return new Fix(time, LAT + meters / GeoMath.METERS_PER_DEGREE, LNG, 10,
+                Fix.PROVIDER_NETWORK);
+    }
+
+    @Test
+    public void unknownWithoutVelocity() {
+        EtaEstimator estimator = new EtaEstimator();
+        estimator.update(north(0, 0));
+
+        assertEquals(EtaEstimator.UNKNOWN, estimator.getEta(north(0, 0), GEOFENCE));
+        assertEquals(0, estimator.getSpeed(), 0);
+    }
+
+    @Test
+    public void insideIsZero() {
+        EtaEstimator estimator = new EtaEstimator();
+
+        assertEquals(0, estimator.getEta(north(0, 1050), GEOFENCE));
+    }
+
+    @Test
+    public void velocityFromDisplacement() {
+        EtaEstimator estimator = new EtaEstimator();
+        for (int i = 0; i <= 10; i++) {
+            estimator.update(north(i * SECOND, i * 10));
+        }
+
+        // 100m along at 10m/s, 900m to go
+        assertEquals(10, estimator.getSpeed(), 0.1);
+        assertEquals(90, estimator.getEta(north(10 * SECOND, 100), GEOFENCE), 1);
+    }
+
+    @Test
+    public void velocityFromTheFixItself() {
+        EtaEstimator estimator = new EtaEstimator();
+        Fix fix = north(0, 0);
+        fix.setSpeed(20);
+        fix.setBearing(0);
+        estimator.update(fix);
+
+        assertEquals(20, estimator.getSpeed(), 0.01);
+        assertEquals(50, estimator.getEta(fix, GEOFENCE), 1);
+    }
+
+    @Test
+    public void onlyTheClosingPartCounts() {
+        EtaEstimator estimator = new EtaEstimator();
+        Fix fix = north(0, 0);
+        fix.setSpeed(20);
+        fix.setBearing(60);
+        estimator.update(fix);
+
+        // cos(60) of the speed is toward the geofence
+        assertEquals(100, estimator.getEta(fix, GEOFENCE), 2);
+    }
+
+    @Test
+    public void headingAwayIsUnknown() {
+        EtaEstimator estimator = new EtaEstimator();
+        Fix fix = north(0, 0);
+        fix.setSpeed(20);
+        fix.setBearing(180);
+        estimator.update(fix);
+
+        assertEquals(EtaEstimator.UNKNOWN, estimator.getEta(fix, GEOFENCE));
+
+        fix.setBearing(90);
+        estimator.reset();
+        estimator.update(fix);
+        assertEquals(EtaEstimator.UNKNOWN, estimator.getEta(fix, GEOFENCE));
+    }
+
+    @Test
+    public void velocityIsSmoothed() {
+        EtaEstimator estimator = new EtaEstimator();
+        Fix fix = north(0, 0);
+        fix.setBearing(0);
+        fix.setSpeed(10);
+        estimator.update(fix);
+
+        // one sample at double the speed only moves it part of the way
+        fix.setSpeed(20);
+        estimator.update(fix);
+        assertEquals(13, estimator.getSpeed(), 0.01);
+    }
+
+    @Test
+    public void resetForgetsVelocity() {
+        EtaEstimator estimator = new EtaEstimator();
+        estimator.update(north(0, 0));
+        estimator.update(north(SECOND, 10));
+        estimator.reset();
+
+        assertEquals(0, estimator.getSpeed(), 0);
+        assertEquals(EtaEstimator.UNKNOWN, estimator.getEta(north(SECOND, 10), GEOFENCE));
+    }
+}
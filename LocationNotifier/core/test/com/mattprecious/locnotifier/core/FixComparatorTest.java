@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class FixComparatorTest {
+    private static final long NOW = 1000000000L;
+    private static final long MINUTE = 60 * 1000;
+
+    private static Fix fix(long time, float accuracy, int provider) {
+        return new Fix(time, 43.65, -79.38, accuracy, provider);
+    }
+
+    @Test
+    public void anyFixBeatsNoFix() {
+        assertTrue(FixComparator.isBetter(fix(NOW, 5000, Fix.PROVIDER_NETWORK), null));
+    }
+
+    @Test
+    public void significantlyNewerWinsWhateverItsAccuracy() {
+        Fix best = fix(NOW, 5, Fix.PROVIDER_GPS);
+
+        assertTrue(FixComparator.isBetter(fix(NOW + 2 * MINUTE + 1, 2000, Fix.PROVIDER_NETWORK),
+                best));
+    }
+
+    @Test
+    public void significantlyOlderLosesWhateverItsAccuracy() {
+        Fix best = fix(NOW, 2000, Fix.PROVIDER_NETWORK);
+
+        assertFalse(FixComparator.isBetter(fix(NOW - 2 * MINUTE - 1, 1, Fix.PROVIDER_GPS), best));
+    }
+
+    @Test
+    public void moreAccurateWinsEvenIfSlightlyOlder() {
+        Fix best = fix(NOW, 50, Fix.PROVIDER_NETWORK);
+
+        assertTrue(FixComparator.isBetter(fix(NOW - MINUTE, 10, Fix.PROVIDER_GPS), best));
+    }
+
+    @Test
+    public void olderAndNoMoreAccurateLoses() {
+        Fix best = fix(NOW, 50, Fix.PROVIDER_GPS);
+
+        assertFalse(FixComparator.isBetter(fix(NOW - 1000, 50, Fix.PROVIDER_GPS), best));
+        assertFalse(FixComparator.isBetter(fix(NOW - 1000, 60, Fix.PROVIDER_GPS), best));
+    }
+
+    @Test
+    public void newerAndAsAccurateWins() {
+        Fix best = fix(NOW, 50, Fix.PROVIDER_GPS);
+
+        assertTrue(FixComparator.isBetter(fix(NOW + 1000, 50, Fix.PROVIDER_NETWORK), best));
+    }
+
+    @Test
+    public void newerButLessAccurateNeedsTheSameProvider() {
+        Fix best = fix(NOW, 20, Fix.PROVIDER_GPS);
+
+        assertTrue(FixComparator.isBetter(fix(NOW + 1000, 120, Fix.PROVIDER_GPS), best));
+        assertFalse(FixComparator.isBetter(fix(NOW + 1000, 120, Fix.PROVIDER_NETWORK), best));
+    }
+
+    @Test
+    public void newerButFarLessAccurateLosesEvenFromTheSameProvider() {
+        Fix best = fix(NOW, 20, Fix.PROVIDER_NETWORK);
+
+        assertFalse(FixComparator.isBetter(fix(NOW + 1000, 221, Fix.PROVIDER_NETWORK), best));
+    }
+}
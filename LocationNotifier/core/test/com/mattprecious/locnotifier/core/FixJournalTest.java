@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class FixJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Fix fix(long time) {
+        return new Fix(time, 43.65 + time * 1E-6, -79.38, time % 100, Fix.PROVIDER_GPS);
+    }
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        FixJournal journal = new FixJournal(folder.newFile("journal"), 8);
+        journal.append(new Fix(1000, 43.65, -79.38, 12.5f, Fix.PROVIDER_NETWORK),
+                TriggerEvaluator.RESULT_ACCEPTED);
+
+        Fix fix = new Fix();
+        assertEquals(1, journal.size());
+        assertEquals(TriggerEvaluator.RESULT_ACCEPTED, journal.read(0, fix));
+        assertEquals(1000, fix.getTime());
+        assertEquals(43.65, fix.getLatitude(), 1E-6);
+        assertEquals(-79.38, fix.getLongitude(), 1E-6);
+        assertEquals(12.5, fix.getAccuracy(), 0);
+        assertEquals(Fix.PROVIDER_NETWORK, fix.getProvider());
+
+        journal.close();
+    }
+
+    @Test
+    public void keepsOnlyTheNewest() throws IOException {
+        FixJournal journal = new FixJournal(folder.newFile("journal"), 8);
+        for (int i = 0; i < 20; i++) {
+            journal.append(fix(i), i % 3);
+        }
+
+        Fix fix = new Fix();
+        assertEquals(8, journal.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals((12 + i) % 3, journal.read(i, fix));
+            assertEquals(12 + i, fix.getTime());
+        }
+
+        journal.close();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastTheEnd() throws IOException {
+        FixJournal journal = new FixJournal(folder.newFile("journal"), 8);
+        journal.append(fix(0), 0);
+
+        journal.read(1, new Fix());
+    }
+
+    @Test
+    public void survivesReopening() throws IOException {
+        File path = folder.newFile("journal");
+        FixJournal journal = new FixJournal(path, 8);
+        for (int i = 0; i < 10; i++) {
+            journal.append(fix(i), 0);
+        }
+        journal.close();
+
+        journal = new FixJournal(path, 8);
+        Fix fix = new Fix();
+        assertEquals(8, journal.size());
+        journal.read(0, fix);
+        assertEquals(2, fix.getTime());
+
+        // and carries on where it left off
+        journal.append(fix(10), 0);
+        journal.read(7, fix);
+        assertEquals(10, fix.getTime());
+        journal.read(0, fix);
+        assertEquals(3, fix.getTime());
+
+        journal.close();
+    }
+
+    @Test
+    public void differentCapacityStartsOver() throws IOException {
+        File path = folder.newFile("journal");
+        FixJournal journal = new FixJournal(path, 8);
+        journal.append(fix(0), 0);
+        journal.close();
+
+        journal = new FixJournal(path, 16);
+        assertEquals(0, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void corruptHeaderStartsOver() throws IOException {
+        File path = folder.newFile("journal");
+        FixJournal journal = new FixJournal(path, 8);
+        journal.append(fix(0), 0);
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        file.writeInt(0);
+        file.close();
+
+        journal = new FixJournal(path, 8);
+        assertEquals(0, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void dumpsAsTraceCsvWithTheDecision() throws IOException {
+        FixJournal journal = new FixJournal(folder.newFile("journal"), 2);
+        journal.append(new Fix(1000, 43.65, -79.38, 10, Fix.PROVIDER_GPS), 0);
+        journal.append(new Fix(2000, 43.66, -79.39, 20, Fix.PROVIDER_GPS), 1);
+        journal.append(new Fix(3000, 43.67, -79.4, 30, Fix.PROVIDER_NETWORK), 2);
+
+        StringWriter writer = new StringWriter();
+        journal.dump(writer);
+        String[] lines = writer.toString().split("\n");
+
+        assertEquals(2, lines.length);
+        assertEquals("2000,43.66,-79.39,20.0,gps,1", lines[0]);
+        assertEquals("3000,43.67,-79.4,30.0,network,2", lines[1]);
+
+        journal.close();
+    }
+
+    @Test
+    public void clear() throws IOException {
+        File path = folder.newFile("journal");
+        FixJournal journal = new FixJournal(path, 8);
+        journal.append(fix(0), 0);
+        journal.clear();
+        assertEquals(0, journal.size());
+        journal.close();
+
+        journal = new FixJournal(path, 8);
+        assertEquals(0, journal.size());
+        journal.close();
+    }
+}
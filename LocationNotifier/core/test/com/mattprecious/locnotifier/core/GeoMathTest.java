@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class GeoMathTest {
+
+    @Test
+    public void samePointIsZeroApart() {
+        assertEquals(0, GeoMath.distance(43.65, -79.38, 43.65, -79.38), 0);
+    }
+
+    @Test
+    public void oneDegreeOfLatitude() {
+        assertEquals(GeoMath.METERS_PER_DEGREE, GeoMath.distance(10, 20, 11, 20), 1);
+    }
+
+    @Test
+    public void longitudeShrinksAwayFromTheEquator() {
+        float atEquator = GeoMath.distance(0, 20, 0, 21);
+        float atSixty = GeoMath.distance(60, 20, 60, 21);
+
+        assertEquals(atEquator / 2, atSixty, 100);
+    }
+
+    @Test
+    public void torontoToMontreal() {
+        // about 504km by great circle
+        float distance = GeoMath.distance(43.6532, -79.3832, 45.5017, -73.5673);
+
+        assertEquals(504263, distance, 10);
+        assertEquals(distance, GeoMath.distance(45.5017, -73.5673, 43.6532, -79.3832), 0.5);
+    }
+
+    @Test
+    public void acrossTheAntimeridian() {
+        assertEquals(GeoMath.distance(0, 0, 0, 0.2), GeoMath.distance(0, 179.9, 0, -179.9), 0.5);
+    }
+
+    @Test
+    public void e6RoundTrip() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int e6 = random.nextInt(360000000) - 180000000;
+            assertEquals(e6, GeoMath.toE6(GeoMath.fromE6(e6)));
+        }
+
+        assertEquals(43599999, GeoMath.toE6(43.599999));
+        assertEquals(-79400000, GeoMath.toE6(-79.4));
+        assertEquals(43.6, GeoMath.fromE6(GeoMath.toE6(43.6)), 1E-9);
+    }
+}
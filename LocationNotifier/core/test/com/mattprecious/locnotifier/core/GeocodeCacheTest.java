@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mattprecious.locnotifier.core.GeocodeCache.Place;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class GeocodeCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long TTL = 7 * 24 * HOUR;
+    private static final long EMPTY_TTL = HOUR;
+    private static final long NOW = 1000 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "geocode");
+    }
+
+    private GeocodeCache newCache(int memoryEntries, long maxDiskBytes) {
+        return new GeocodeCache(dir, memoryEntries, maxDiskBytes, TTL, EMPTY_TTL);
+    }
+
+    private static List<Place> places(String line) {
+        Place place = new Place();
+        place.latitude = 43.65;
+        place.longitude = -79.38;
+        place.lines = new String[] { line, "Toronto, ON" };
+        place.locality = "Toronto";
+        place.countryCode = "CA";
+
+        List<Place> places = new ArrayList<Place>();
+        places.add(place);
+        return places;
+    }
+
+    private static void setModified(File[] files, long time) {
+        for (File file : files) {
+            file.setLastModified(time);
+        }
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("10 main st", GeocodeCache.normalize("  10  Main\tSt.,"));
+        assertEquals("", GeocodeCache.normalize(" .;, "));
+    }
+
+    @Test
+    public void normalizedQueriesShareAnEntry() {
+        GeocodeCache cache = newCache(8, Long.MAX_VALUE);
+        List<Place> places = places("10 Main St");
+        cache.put("10 Main St.", places, NOW);
+
+        assertEquals(places, cache.get(" 10  main st", NOW));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void expiresAfterTheTtl() {
+        GeocodeCache cache = newCache(8, Long.MAX_VALUE);
+        cache.put("cn tower", places("290 Bremner Blvd"), NOW);
+
+        assertEquals(1, cache.get("cn tower", NOW + TTL - 1).size());
+        assertNull(cache.get("cn tower", NOW + TTL));
+        assertEquals(1, cache.getStale("cn tower").size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void emptyAnswersExpireSooner() {
+        GeocodeCache cache = newCache(8, Long.MAX_VALUE);
+        cache.put("nowhere", Collections.<Place> emptyList(), NOW);
+
+        assertTrue(cache.get("nowhere", NOW + EMPTY_TTL - 1).isEmpty());
+        assertNull(cache.get("nowhere", NOW + EMPTY_TTL));
+        assertTrue(cache.getStale("nowhere").isEmpty());
+        assertNull(cache.getStale("somewhere"));
+    }
+
+    @Test
+    public void readsBackFromDisk() {
+        Place place = places("290 Bremner Blvd").get(0);
+        place.featureName = "CN Tower";
+        place.postalCode = "M5V 3L9";
+        newCache(8, Long.MAX_VALUE).put("cn tower", Collections.singletonList(place), NOW);
+
+        GeocodeCache cache = newCache(8, Long.MAX_VALUE);
+        List<Place> places = cache.get("cn tower", NOW);
+
+        assertEquals(1, places.size());
+        Place read = places.get(0);
+        assertEquals(place.latitude, read.latitude, 0);
+        assertEquals(place.longitude, read.longitude, 0);
+        assertArrayEquals(place.lines, read.lines);
+        assertEquals("CN Tower", read.featureName);
+        assertNull(read.thoroughfare);
+        assertEquals("Toronto", read.locality);
+        assertEquals("M5V 3L9", read.postalCode);
+        assertEquals("CA", read.countryCode);
+    }
+
+    @Test
+    public void memoryOverflowFallsBackToDisk() throws IOException {
+        GeocodeCache cache = newCache(1, Long.MAX_VALUE);
+        cache.put("first", places("1 First St"), NOW);
+        cache.put("second", places("2 Second St"), NOW);
+
+        assertEquals("1 First St", cache.get("first", NOW).get(0).lines[0]);
+        assertEquals("2 Second St", cache.get("second", NOW).get(0).lines[0]);
+        assertNull(cache.get("third", NOW));
+
+        StringWriter writer = new StringWriter();
+        cache.writeStats(writer);
+        assertEquals("geocode cache: 0 memory hits, 2 disk hits, 1 misses, 0 stale, 67% hit rate\n",
+                writer.toString());
+    }
+
+    @Test
+    public void corruptFilesAreMisses() throws IOException {
+        newCache(8, Long.MAX_VALUE).put("cn tower", places("290 Bremner Blvd"), NOW);
+
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        FileOutputStream out = new FileOutputStream(files[0]);
+        out.write(new byte[] { 0x4c, 0x4e, 0x47, 0x43, 0, 0, 0, 1, 0 });
+        out.close();
+
+        assertNull(newCache(8, Long.MAX_VALUE).get("cn tower", NOW));
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void trimsTheLeastRecentlyUsed() {
+        newCache(1, Long.MAX_VALUE).put("query 0", places("0 Main St"), NOW);
+        long size = dir.listFiles()[0].length();
+
+        // room for three and a half entries, trimmed to under 2.6
+        GeocodeCache cache = newCache(1, size * 7 / 2);
+        setModified(dir.listFiles(), 1000);
+        cache.put("query 1", places("1 Main St"), NOW);
+        setModified(dir.listFiles(), 1000);
+        cache.put("query 2", places("2 Main St"), NOW);
+        setModified(dir.listFiles(), 1000);
+
+        // reading 0 back from disk makes it the most recent
+        assertEquals(1, cache.get("query 0", NOW + 1).size());
+        cache.put("query 3", places("3 Main St"), NOW);
+
+        assertEquals(2, dir.listFiles().length);
+        assertNull(cache.getStale("query 1"));
+        assertNull(cache.getStale("query 2"));
+        assertEquals(1, cache.getStale("query 0").size());
+    }
+
+    @Test
+    public void clear() {
+        GeocodeCache cache = newCache(8, Long.MAX_VALUE);
+        cache.put("cn tower", places("290 Bremner Blvd"), NOW);
+        cache.clear();
+
+        assertNull(cache.get("cn tower", NOW));
+        assertEquals(0, dir.listFiles().length);
+    }
+}
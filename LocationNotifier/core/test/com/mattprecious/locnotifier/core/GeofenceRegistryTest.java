@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class GeofenceRegistryTest {
+    private static final double LAT = 43.65;
+    private static final double LNG = -79.38;
+
+    /**
+     * @return a fix the given number of meters north of (LAT, LNG)
+     */
+    private static Fix north(double meters, float accuracy) {
+        return new Fix(0, LAT + meters / GeoMath.METERS_PER_DEGREE, LNG, accuracy,
+                Fix.PROVIDER_GPS);
+    }
+
+    private static Geofence geofence(long id, double metersNorth, float radius) {
+        return new Geofence(id, GeoMath.toE6(LAT + metersNorth / GeoMath.METERS_PER_DEGREE),
+                GeoMath.toE6(LNG), radius);
+    }
+
+    @Test
+    public void containsWithinTheRadius() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        Geofence geofence = geofence(1, 0, 200);
+        registry.add(geofence);
+
+        assertSame(geofence, registry.findContaining(north(190, 5)));
+        assertNull(registry.findContaining(north(210, 5)));
+    }
+
+    @Test
+    public void containsAcrossCellBoundaries() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+
+        // a cell is about 1.1km, so these reach into the neighbouring cells on every side
+        Geofence west = new Geofence(1, GeoMath.toE6(-33.86), GeoMath.toE6(151.2), 3000);
+        Geofence east = new Geofence(2, GeoMath.toE6(51.5), GeoMath.toE6(-0.005), 3000);
+        registry.add(west);
+        registry.add(east);
+
+        assertSame(west, registry.findContaining(new Fix(0, -33.84, 151.22, 5,
+                Fix.PROVIDER_GPS)));
+        assertSame(east, registry.findContaining(new Fix(0, 51.51, 0.02, 5, Fix.PROVIDER_GPS)));
+    }
+
+    @Test
+    public void confidenceNeedsAnAccurateEnoughFix() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        Geofence geofence = new Geofence(1, GeoMath.toE6(LAT), GeoMath.toE6(LNG), 200,
+                Geofence.FILTER_NONE, 0.9f);
+        registry.add(geofence);
+
+        // just inside the radius is only a coin toss, well inside with a tight fix isn't
+        assertNull(registry.findContaining(north(195, 100)));
+        assertSame(geofence, registry.findContaining(north(100, 10)));
+    }
+
+    @Test
+    public void oversizedGeofence() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+
+        // covers far more than 64 cells, so it's checked against every fix instead
+        Geofence huge = geofence(1, 0, 50000);
+        registry.add(huge);
+
+        assertSame(huge, registry.findContaining(north(-45000, 5)));
+        assertNull(registry.findContaining(north(55000, 5)));
+
+        assertSame(huge, registry.findNearest(north(60000, 5)));
+        assertEquals(10000, registry.getDistanceToNearestEdge(north(60000, 5)), 10);
+
+        registry.remove(1);
+        assertNull(registry.findContaining(north(0, 5)));
+        assertNull(registry.findNearest(north(0, 5)));
+    }
+
+    @Test
+    public void nearestIsByEdgeNotCenter() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        Geofence small = geofence(1, 1000, 50);
+        Geofence large = geofence(2, -1500, 1000);
+        registry.add(small);
+        registry.add(large);
+
+        // the large one's center is further, but its edge is 500m away against 950m
+        assertSame(large, registry.findNearest(north(0, 5)));
+        assertEquals(500, registry.getDistanceToNearestEdge(north(0, 5)), 1);
+    }
+
+    @Test
+    public void insideIsZeroFromTheEdge() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        registry.add(geofence(1, 0, 500));
+
+        assertEquals(0, registry.getDistanceToNearestEdge(north(100, 5)), 0);
+    }
+
+    @Test
+    public void nearestStopsAtTheRingCutOff() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        Geofence near = geofence(1, 5000, 100);
+        registry.add(near);
+
+        assertSame(near, registry.findNearest(north(0, 5)));
+        assertEquals(4900, registry.getDistanceToNearestEdge(north(0, 5)), 1);
+
+        registry.remove(1);
+        registry.add(geofence(2, 20000, 100));
+
+        // too far for the ring search, the distance is only a lower bound then
+        assertNull(registry.findNearest(north(0, 5)));
+        float bound = registry.getDistanceToNearestEdge(north(0, 5));
+        assertTrue(bound > 5000);
+        assertTrue(bound < 19900);
+    }
+
+    @Test
+    public void emptyRegistry() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+
+        assertNull(registry.findNearest(north(0, 5)));
+        assertNull(registry.findContaining(north(0, 5)));
+        assertEquals(Float.MAX_VALUE, registry.getDistanceToNearestEdge(north(0, 5)), 0);
+    }
+
+    @Test
+    public void addingTheSameIdReplaces() {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        registry.add(geofence(1, 0, 100));
+        Geofence moved = geofence(1, 3000, 100);
+        registry.add(moved);
+
+        assertEquals(1, registry.size());
+        assertNull(registry.findContaining(north(0, 5)));
+        assertSame(moved, registry.findContaining(north(3000, 5)));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class KalmanFixFilterTest {
+    private static final long SECOND = 1000;
+    private static final double LAT = 43.65;
+    private static final double LNG = -79.38;
+
+    private static double metersPerDegreeLng() {
+        return GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT));
+    }
+
+    @Test
+    public void firstFixPassesThrough() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        Fix fix = new Fix(0, LAT, LNG, 25, Fix.PROVIDER_GPS);
+        Fix estimate = filter.filter(fix);
+
+        assertNotSame(fix, estimate);
+        assertEquals(LAT, estimate.getLatitude(), 0);
+        assertEquals(LNG, estimate.getLongitude(), 0);
+        assertEquals(25, estimate.getAccuracy(), 0);
+    }
+
+    @Test
+    public void smoothsNoiseAroundAStationaryPoint() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        Random random = new Random(42);
+        Fix center = new Fix(0, LAT, LNG, 0, Fix.PROVIDER_UNKNOWN);
+
+        double rawError = 0;
+        double filteredError = 0;
+        Fix estimate = null;
+        for (int i = 0; i < 600; i++) {
+            double north = random.nextGaussian() * 20;
+            double east = random.nextGaussian() * 20;
+            Fix fix = new Fix(i * SECOND, LAT + north / GeoMath.METERS_PER_DEGREE, LNG + east
+                    / metersPerDegreeLng(), 20, Fix.PROVIDER_GPS);
+            estimate = filter.filter(fix);
+
+            // give it a minute to settle
+            if (i >= 60) {
+                rawError += GeoMath.distance(center, fix);
+                filteredError += GeoMath.distance(center, estimate);
+            }
+        }
+
+        assertTrue(filteredError < rawError * 0.75);
+        assertTrue(estimate.getAccuracy() < 20);
+    }
+
+    @Test
+    public void tracksConstantVelocity() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+
+        Fix estimate = null;
+        for (int i = 0; i < 60; i++) {
+            // 10m/s due north
+            estimate = filter.filter(new Fix(i * SECOND, LAT + i * 10
+                    / GeoMath.METERS_PER_DEGREE, LNG, 5, Fix.PROVIDER_GPS));
+        }
+
+        assertEquals(10, estimate.getSpeed(), 0.5);
+        float bearing = estimate.getBearing();
+        assertTrue(bearing < 3 || bearing > 357);
+        assertEquals(LAT + 590 / GeoMath.METERS_PER_DEGREE, estimate.getLatitude(),
+                5 / GeoMath.METERS_PER_DEGREE);
+    }
+
+    @Test
+    public void longGapStartsOver() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        for (int i = 0; i < 30; i++) {
+            filter.filter(new Fix(i * SECOND, LAT, LNG, 20, Fix.PROVIDER_GPS));
+        }
+
+        // six minutes later and a kilometer away, the old track is no use
+        double lat = LAT + 1000 / GeoMath.METERS_PER_DEGREE;
+        Fix estimate = filter.filter(new Fix(29 * SECOND + 6 * 60 * SECOND, lat, LNG, 30,
+                Fix.PROVIDER_NETWORK));
+
+        assertEquals(lat, estimate.getLatitude(), 0);
+        assertEquals(30, estimate.getAccuracy(), 0);
+        assertEquals(Fix.PROVIDER_NETWORK, estimate.getProvider());
+    }
+
+    @Test
+    public void timeGoingBackwardsStartsOver() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        filter.filter(new Fix(10 * SECOND, LAT, LNG, 20, Fix.PROVIDER_GPS));
+        filter.filter(new Fix(11 * SECOND, LAT, LNG, 20, Fix.PROVIDER_GPS));
+
+        double lat = LAT + 500 / GeoMath.METERS_PER_DEGREE;
+        Fix estimate = filter.filter(new Fix(5 * SECOND, lat, LNG, 20, Fix.PROVIDER_GPS));
+
+        assertEquals(lat, estimate.getLatitude(), 0);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        KalmanFixFilter filter = new KalmanFixFilter();
+        filter.filter(new Fix(0, LAT, LNG, 20, Fix.PROVIDER_GPS));
+        filter.reset();
+
+        double lat = LAT + 500 / GeoMath.METERS_PER_DEGREE;
+        Fix estimate = filter.filter(new Fix(SECOND, lat, LNG, 20, Fix.PROVIDER_GPS));
+
+        assertEquals(lat, estimate.getLatitude(), 0);
+        assertEquals(20, estimate.getAccuracy(), 0);
+    }
+}
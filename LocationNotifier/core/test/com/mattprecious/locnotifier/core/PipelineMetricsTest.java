@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.mattprecious.locnotifier.core.PipelineMetrics.Histogram;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class PipelineMetricsTest {
+    private static final long MICROSECOND = 1000;
+
+    @Test
+    public void emptyHistogram() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100 * MICROSECOND);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000 * MICROSECOND);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(128, histogram.getPercentile(0.5));
+        assertEquals(128, histogram.getPercentile(0.9));
+        assertEquals(8192, histogram.getPercentile(0.91));
+        assertEquals(8192, histogram.getPercentile(1));
+        assertEquals(5000 * MICROSECOND, histogram.getMax());
+    }
+
+    @Test
+    public void powersOfTwoStartTheNextBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(127 * MICROSECOND);
+        assertEquals(128, histogram.getPercentile(1));
+
+        histogram = new Histogram();
+        histogram.record(128 * MICROSECOND);
+        assertEquals(256, histogram.getPercentile(1));
+
+        histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void hugeLatenciesLandInTheLastBucket() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1L << 39, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void addMerges() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record(10 * MICROSECOND);
+        b.record(1000 * MICROSECOND);
+        b.record(1000 * MICROSECOND);
+
+        a.add(b);
+
+        assertEquals(3, a.getCount());
+        assertEquals(16, a.getPercentile(0.3));
+        assertEquals(1024, a.getPercentile(0.5));
+        assertEquals(1000 * MICROSECOND, a.getMax());
+        assertEquals(2, b.getCount());
+    }
+
+    @Test
+    public void accuracyBuckets() {
+        assertEquals(0, PipelineMetrics.getAccuracyBucket(0));
+        assertEquals(0, PipelineMetrics.getAccuracyBucket(10));
+        assertEquals(1, PipelineMetrics.getAccuracyBucket(10.5f));
+        assertEquals(3, PipelineMetrics.getAccuracyBucket(1000));
+        assertEquals(4, PipelineMetrics.getAccuracyBucket(1001));
+    }
+
+    @Test
+    public void latencyIsKeptByProviderAndAccuracy() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordLatency(PipelineMetrics.STAGE_FILTER, Fix.PROVIDER_GPS, 8, 50 * MICROSECOND);
+        metrics.recordLatency(PipelineMetrics.STAGE_FILTER, Fix.PROVIDER_NETWORK, 800,
+                50 * MICROSECOND);
+
+        assertEquals(1, metrics.getHistogram(PipelineMetrics.STAGE_FILTER, Fix.PROVIDER_GPS, 0)
+                .getCount());
+        assertEquals(1, metrics.getHistogram(PipelineMetrics.STAGE_FILTER,
+                Fix.PROVIDER_NETWORK, 3).getCount());
+        assertEquals(0, metrics.getHistogram(PipelineMetrics.STAGE_ALERT, Fix.PROVIDER_GPS, 0)
+                .getCount());
+    }
+
+    @Test
+    public void countsFixesByDecision() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordFix(Fix.PROVIDER_GPS, 5, TriggerEvaluator.RESULT_ACCEPTED);
+        metrics.recordFix(Fix.PROVIDER_GPS, 7, TriggerEvaluator.RESULT_ACCEPTED);
+        metrics.recordFix(Fix.PROVIDER_GPS, 7, TriggerEvaluator.RESULT_REJECTED);
+
+        assertEquals(2, metrics.getFixCount(Fix.PROVIDER_GPS, 0,
+                TriggerEvaluator.RESULT_ACCEPTED));
+        assertEquals(1, metrics.getFixCount(Fix.PROVIDER_GPS, 0,
+                TriggerEvaluator.RESULT_REJECTED));
+        assertEquals(0, metrics.getFixCount(Fix.PROVIDER_NETWORK, 0,
+                TriggerEvaluator.RESULT_ACCEPTED));
+    }
+
+    @Test
+    public void reportListsOnlyWhatWasSeen() throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordLatency(PipelineMetrics.STAGE_RECEIPT, Fix.PROVIDER_NETWORK, 600,
+                3000 * MICROSECOND);
+        metrics.recordFix(Fix.PROVIDER_NETWORK, 600, TriggerEvaluator.RESULT_TRIGGERED);
+
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        String report = writer.toString();
+
+        assertTrue(report.contains(String.format("%-12s %-9s %-8s %6d %10d %10d %10d %10d\n",
+                "receipt", "all", "all", 1, 4096, 4096, 4096, 3000)));
+        assertTrue(report.contains(String.format("%-12s %-9s %-8s %6d", "", "network",
+                "<=1000m", 1)));
+        assertTrue(report.contains(String.format("%-9s %8s %10d %10d %10d\n", "network",
+                "<=1000m", 0, 0, 1)));
+        assertFalse(report.contains("gps"));
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mattprecious.locnotifier.core.PlaceIndex.Result;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class PlaceIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PlaceIndex ontario() {
+        return new PlaceIndex.Builder().add("Toronto", null, 43.7, -79.42, 2600000)
+                .add("Torbay", null, 47.66, -52.73, 7900)
+                .add("Tor", null, 44.0, -79.0, 1000)
+                .add("Ottawa", null, 45.42, -75.7, 900000)
+                .add("Saint-Lazare", "St Lazare", 45.4, -74.13, 19000)
+                .add("Thunder Bay", null, 48.38, -89.25, 108000).build();
+    }
+
+    private static List<String> names(List<Result> results) {
+        List<String> names = new ArrayList<String>();
+        for (Result result : results) {
+            names.add(result.name);
+        }
+
+        return names;
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("st john s", PlaceIndex.normalize("  St. John's "));
+        assertEquals("", PlaceIndex.normalize("--"));
+    }
+
+    @Test
+    public void matchesByPrefixMostPopulousFirst() {
+        List<Result> results = ontario().search("to", Double.NaN, Double.NaN, 10);
+
+        assertEquals(3, results.size());
+        assertEquals("Toronto", results.get(0).name);
+        assertEquals(43.7, results.get(0).latitude, 1E-6);
+        assertEquals(2600000, results.get(0).population);
+        assertTrue(Double.isNaN(results.get(0).distance));
+        assertEquals("Torbay", results.get(1).name);
+        assertEquals("Tor", results.get(2).name);
+    }
+
+    @Test
+    public void exactMatchesGetABoost() {
+        // log10(1010) + 1 beats log10(7910)
+        List<Result> results = ontario().search("Tor", Double.NaN, Double.NaN, 2);
+
+        assertEquals("Toronto", results.get(0).name);
+        assertEquals("Tor", results.get(1).name);
+    }
+
+    @Test
+    public void searchesTheKeyButReturnsTheName() {
+        assertEquals(Collections.singletonList("Saint-Lazare"),
+                names(ontario().search("st. laz", Double.NaN, Double.NaN, 5)));
+        assertEquals(Collections.singletonList("Thunder Bay"),
+                names(ontario().search("THUNDER  b", Double.NaN, Double.NaN, 5)));
+    }
+
+    @Test
+    public void nothingForNoMatchOrAnEmptyQuery() {
+        PlaceIndex index = ontario();
+
+        assertTrue(index.search("zz", Double.NaN, Double.NaN, 5).isEmpty());
+        assertTrue(index.search(" ", Double.NaN, Double.NaN, 5).isEmpty());
+        assertTrue(index.search("to", Double.NaN, Double.NaN, 0).isEmpty());
+    }
+
+    @Test
+    public void nearbyPlacesWinWhenBiased() {
+        PlaceIndex index = new PlaceIndex.Builder()
+                .add("Springfield, IL", "Springfield", 39.8, -89.65, 115000)
+                .add("Springfield, MA", "Springfield", 42.1, -72.59, 155000).build();
+
+        List<Result> results = index.search("springfield", 42.3, -72.6, 2);
+
+        assertEquals("Springfield, MA", results.get(0).name);
+        assertEquals(22000, results.get(0).distance, 1000);
+        assertEquals("Springfield, IL", results.get(1).name);
+    }
+
+    @Test
+    public void ranksLikeAFullScan() {
+        Random random = new Random(9);
+        PlaceIndex.Builder builder = new PlaceIndex.Builder();
+        List<double[]> places = new ArrayList<double[]>();
+        List<String> keys = new ArrayList<String>();
+
+        // short keys over a small alphabet, so prefixes match ranges spanning many blocks
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int j = 0, length = 1 + random.nextInt(5); j < length; j++) {
+                key.append((char) ('a' + random.nextInt(3)));
+            }
+
+            double latitude = random.nextDouble() * 120 - 60;
+            double longitude = random.nextDouble() * 360 - 180;
+            int population = random.nextInt(4) == 0 ? random.nextInt(5000000) : random
+                    .nextInt(1000);
+
+            builder.add(key.toString(), null, latitude, longitude, population);
+            keys.add(key.toString());
+            places.add(new double[] { GeoMath.fromE6(GeoMath.toE6(latitude)),
+                    GeoMath.fromE6(GeoMath.toE6(longitude)), population });
+        }
+
+        PlaceIndex index = builder.build();
+        String[] prefixes = { "a", "ab", "cc", "bab" };
+        for (String prefix : prefixes) {
+            assertSameScores(index.search(prefix, Double.NaN, Double.NaN, 10),
+                    scan(keys, places, prefix, Double.NaN, Double.NaN, 10));
+            assertSameScores(index.search(prefix, 43.65, -79.38, 10),
+                    scan(keys, places, prefix, 43.65, -79.38, 10));
+        }
+    }
+
+    private static List<Float> scan(List<String> keys, List<double[]> places, String prefix,
+            double latitude, double longitude, int max) {
+        List<Float> scores = new ArrayList<Float>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!keys.get(i).startsWith(prefix)) {
+                continue;
+            }
+
+            double[] place = places.get(i);
+            float score = (float) Math.log10(place[2] + 10);
+            if (keys.get(i).length() == prefix.length()) {
+                score += 1;
+            }
+
+            if (!Double.isNaN(latitude)) {
+                score -= 2 * Math.log10(1 + GeoMath.distance(latitude, longitude, place[0],
+                        place[1]) / 10000);
+            }
+
+            scores.add(score);
+        }
+
+        Collections.sort(scores, Collections.reverseOrder());
+        return scores.subList(0, Math.min(max, scores.size()));
+    }
+
+    private static void assertSameScores(List<Result> results, List<Float> expected) {
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(expected.get(i), results.get(i).score, 1E-4);
+        }
+    }
+
+    @Test
+    public void importsCsv() throws IOException {
+        PlaceIndex index = PlaceIndex.importGazetteer(new StringReader(
+                "name,latitude,longitude,population\n" + "Toronto,43.7,-79.42,2600000\n"
+                        + "\"Niagara Falls, ON\",43.09,-79.08\n" + "Nowhere,north,east\n"
+                        + "\"Unclosed,1,2\n"));
+
+        assertEquals(2, index.size());
+
+        Result niagara = index.search("niagara", Double.NaN, Double.NaN, 1).get(0);
+        assertEquals("Niagara Falls, ON", niagara.name);
+        assertEquals(-79.08, niagara.longitude, 1E-6);
+        assertEquals(0, niagara.population);
+    }
+
+    @Test
+    public void importsGeoNames() throws IOException {
+        String line = "6167865\tToronto\tToronto\tTO,YTO\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08"
+                + "\t\t\t\t2600000\t\t175\tAmerica/Toronto\t2016-06-30\n";
+        String ascii = "6077243\tMontr\u00e9al\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10"
+                + "\t\t\t\t1600000\t\t216\tAmerica/Toronto\t2016-06-30\n";
+
+        PlaceIndex index = PlaceIndex.importGazetteer(new StringReader(line + ascii
+                + "too\tfew\tcolumns\n"));
+
+        assertEquals(2, index.size());
+        assertEquals(2600000, index.search("toronto", Double.NaN, Double.NaN, 1).get(0)
+                .population);
+        assertEquals("Montr\u00e9al", index.search("montreal", Double.NaN, Double.NaN, 1).get(0)
+                .name);
+    }
+
+    @Test
+    public void saveThenLoad() throws IOException {
+        File file = folder.newFile("places");
+        PlaceIndex index = ontario();
+        index.save(file);
+
+        PlaceIndex loaded = PlaceIndex.load(file);
+
+        assertEquals(index.size(), loaded.size());
+        assertEquals(index.getMemoryBytes(), loaded.getMemoryBytes());
+        assertEquals(names(index.search("t", 45, -75, 10)),
+                names(loaded.search("t", 45, -75, 10)));
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsOtherFiles() throws IOException {
+        File file = folder.newFile("places");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Toronto,43.7,-79.42,2600000\n".getBytes("US-ASCII"));
+        out.close();
+
+        PlaceIndex.load(file);
+    }
+}
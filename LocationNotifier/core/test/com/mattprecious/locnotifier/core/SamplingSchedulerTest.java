@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class SamplingSchedulerTest {
+
+    @Test
+    public void startsAtTheDensestTier() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+
+        assertEquals(0, scheduler.getMinTime());
+        assertEquals(0, scheduler.getMinDistance(), 0);
+        assertNull(scheduler.getLastChange());
+    }
+
+    @Test
+    public void backsOffOnlyWhenTwoFixesAgree() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+
+        // an hour away
+        assertFalse(scheduler.update(5000, 3600, 0));
+        assertEquals(0, scheduler.getMinTime());
+
+        assertTrue(scheduler.update(5000, 3600, 0));
+        assertEquals(300000, scheduler.getMinTime());
+        assertEquals(1000, scheduler.getMinDistance(), 0);
+        assertTrue(scheduler.getLastChange().startsWith("tier 0 -> 5"));
+    }
+
+    @Test
+    public void tightensRightAway() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        scheduler.update(5000, 3600, 0);
+        scheduler.update(5000, 3600, 0);
+
+        assertTrue(scheduler.update(200, 20, 0));
+        assertEquals(0, scheduler.getMinTime());
+    }
+
+    @Test
+    public void disagreeingFixesHoldTheTier() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+
+        assertFalse(scheduler.update(5000, 3600, 0));
+        assertFalse(scheduler.update(5000, 200, 0));
+        assertFalse(scheduler.update(5000, 3600, 0));
+        assertEquals(0, scheduler.getMinTime());
+    }
+
+    @Test
+    public void withoutAnEtaAssumesWalkingPace() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+
+        // 280m at 1.4m/s is 200s, even when standing still
+        scheduler.update(280, EtaEstimator.UNKNOWN, 0);
+        assertTrue(scheduler.update(280, EtaEstimator.UNKNOWN, 0));
+        assertEquals(15000, scheduler.getMinTime());
+        assertEquals(100, scheduler.getMinDistance(), 0);
+        assertTrue(scheduler.getLastChange().endsWith("at 1.4m/s"));
+
+        // but faster when moving faster
+        assertTrue(scheduler.update(280, EtaEstimator.UNKNOWN, 14));
+        assertEquals(0, scheduler.getMinTime());
+    }
+
+    @Test
+    public void keepsTheRecentChanges() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        for (int i = 0; i < 40; i++) {
+            scheduler.update(5000, 3600, 0);
+            scheduler.update(5000, 3600, 0);
+            scheduler.update(0, 0, 0);
+        }
+
+        assertEquals(50, scheduler.getChanges().size());
+        assertTrue(scheduler.getChanges().get(49).startsWith("tier 5 -> 0"));
+    }
+
+    @Test
+    public void countsFixes() {
+        SamplingScheduler scheduler = new SamplingScheduler();
+        scheduler.onFix();
+        scheduler.onFix();
+
+        assertEquals(2, scheduler.getFixesHandled());
+    }
+}
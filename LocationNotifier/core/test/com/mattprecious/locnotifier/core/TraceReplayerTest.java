@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class TraceReplayerTest {
+    private static final double LAT = 43.65;
+    private static final double LNG = -79.38;
+
+    private static GeofenceRegistry destination(double metersNorth, float radius) {
+        GeofenceRegistry registry = new GeofenceRegistry();
+        registry.add(new Geofence(1, GeoMath.toE6(LAT + metersNorth / GeoMath.METERS_PER_DEGREE),
+                GeoMath.toE6(LNG), radius));
+        return registry;
+    }
+
+    /**
+     * @return a trip due north from (LAT, LNG) at 15m/s, one fix a second
+     */
+    private static Trace trip(double meters, float gpsFraction) {
+        return Trace.synthesize(LAT, LNG, LAT + meters / GeoMath.METERS_PER_DEGREE, LNG, 15, 1,
+                gpsFraction, 5);
+    }
+
+    @Test
+    public void triggersOnArrival() {
+        Trace trace = trip(10000, 1);
+        TraceReplayer.Result result = TraceReplayer.replay(trace, destination(9000, 200));
+
+        assertTrue(result.isTriggered());
+        assertFalse(result.falseTrigger);
+
+        // the truth enters at 8.8km, and GPS fixes are good to 20m
+        assertEquals(8800 / 15 * 1000, result.entryTime, 1000);
+        assertTrue(result.getLatency() >= -2000 && result.getLatency() <= 5000);
+        assertTrue(result.fixesProcessed < trace.size());
+    }
+
+    @Test
+    public void passingWideNeverTriggers() {
+        Trace trace = trip(10000, 1);
+        GeofenceRegistry registry = new GeofenceRegistry();
+        registry.add(new Geofence(1, GeoMath.toE6(LAT + 0.05), GeoMath.toE6(LNG + 0.05), 200));
+
+        TraceReplayer.Result result = TraceReplayer.replay(trace, registry);
+
+        assertFalse(result.isTriggered());
+        assertEquals(-1, result.entryTime);
+        assertEquals(-1, result.getLatency());
+        assertEquals(trace.size(), result.fixesProcessed);
+        assertEquals(-1, result.gpsTime);
+    }
+
+    @Test
+    public void stateMachineHoldsGpsDownWhileFar() {
+        Trace trace = trip(20000, 0.5f);
+        GeofenceRegistry registry = destination(19000, 200);
+        TrackingStateMachine tracking = new TrackingStateMachine();
+
+        TraceReplayer.Result result = TraceReplayer.replay(trace, new TriggerEvaluator(registry),
+                tracking, false);
+
+        assertTrue(result.isTriggered());
+        assertTrue(result.gpsTime > 0);
+        assertTrue(result.gpsTime < result.trackingTime / 2);
+        assertTrue(result.fixesProcessed < trace.size() * 3 / 4);
+    }
+
+    @Test
+    public void preStageWaitsForTheRing() {
+        Trace trace = trip(10000, 1);
+        GeofenceRegistry registry = destination(9000, 200);
+
+        TraceReplayer.Result result = TraceReplayer.replay(trace, new TriggerEvaluator(registry),
+                new TrackingStateMachine(), true);
+
+        // the pre-stage ring reaches 700m from the center, 8.3km along
+        assertTrue(result.isTriggered());
+        assertEquals(8300 / 15 * 1000, result.escalationTime, 3000);
+        assertTrue(result.fixesProcessed < 60);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class TraceTest {
+
+    @Test
+    public void readSkipsCommentsAndBlankLines() throws IOException {
+        Trace trace = Trace.read(new StringReader("# time,lat,lng,accuracy,provider\n\n"
+                + "1000, 43.65, -79.38, 12.5, gps\n" + "2000,43.66,-79.39,800,network\n"));
+
+        assertEquals(2, trace.size());
+        assertEquals(1000, trace.get(0).getTime());
+        assertEquals(-79.38, trace.get(0).getLongitude(), 0);
+        assertEquals(12.5, trace.get(0).getAccuracy(), 0);
+        assertEquals(Fix.PROVIDER_GPS, trace.get(0).getProvider());
+        assertEquals(Fix.PROVIDER_NETWORK, trace.get(1).getProvider());
+    }
+
+    @Test
+    public void readRejectsMalformedLines() {
+        assertMalformed("1000,43.65,-79.38,12.5\n");
+        assertMalformed("1000,43.65,west,12.5,gps\n");
+    }
+
+    private static void assertMalformed(String csv) {
+        try {
+            Trace.read(new StringReader(csv));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("line 1"));
+        }
+    }
+
+    @Test
+    public void writeThenRead() throws IOException {
+        Trace trace = Trace.synthesize(43.65, -79.38, 43.66, -79.37, 15, 1, 0.5f, 7);
+
+        StringWriter writer = new StringWriter();
+        trace.write(writer);
+        Trace copy = Trace.read(new StringReader(writer.toString()));
+
+        assertEquals(trace.size(), copy.size());
+        for (int i = 0; i < trace.size(); i++) {
+            Fix a = trace.get(i);
+            Fix b = copy.get(i);
+
+            assertEquals(a.getTime(), b.getTime());
+            assertEquals(a.getLatitude(), b.getLatitude(), 0);
+            assertEquals(a.getLongitude(), b.getLongitude(), 0);
+            assertEquals(a.getAccuracy(), b.getAccuracy(), 0);
+            assertEquals(a.getProvider(), b.getProvider());
+        }
+    }
+
+    @Test
+    public void providerNames() {
+        int[] providers = { Fix.PROVIDER_UNKNOWN, Fix.PROVIDER_GPS, Fix.PROVIDER_NETWORK,
+                Fix.PROVIDER_PASSIVE };
+        for (int provider : providers) {
+            assertEquals(provider, Trace.parseProvider(Trace.getProviderName(provider)));
+        }
+
+        assertEquals(Fix.PROVIDER_UNKNOWN, Trace.parseProvider("fused"));
+    }
+
+    @Test
+    public void synthesizedTripRunsStartToEnd() {
+        Trace trace = Trace.synthesize(43.65, -79.38, 43.65 + 2000 / GeoMath.METERS_PER_DEGREE,
+                -79.38, 10, 2, 1, 3);
+        Trace truth = trace.getTruth();
+
+        // 2km at 10m/s, two fixes a second
+        assertEquals(401, trace.size());
+        assertEquals(trace.size(), truth.size());
+        assertEquals(500, trace.get(1).getTime());
+        assertEquals(2000, GeoMath.distance(truth.get(0), truth.get(truth.size() - 1)), 1);
+
+        for (int i = 0; i < trace.size(); i++) {
+            Fix fix = trace.get(i);
+            assertEquals(Fix.PROVIDER_GPS, fix.getProvider());
+            assertTrue(fix.getAccuracy() >= 5 && fix.getAccuracy() <= 20);
+            assertEquals(10, fix.getSpeed(), 0);
+        }
+    }
+
+    @Test
+    public void synthesizedTripsRepeat() {
+        Trace a = Trace.synthesize(43.65, -79.38, 43.7, -79.3, 15, 1, 0.5f, 11);
+        Trace b = Trace.synthesize(43.65, -79.38, 43.7, -79.3, 15, 1, 0.5f, 11);
+
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(a.get(i).getLatitude(), b.get(i).getLatitude(), 0);
+            assertEquals(a.get(i).getProvider(), b.get(i).getProvider());
+        }
+    }
+
+    @Test
+    public void readTraceIsItsOwnTruth() throws IOException {
+        Trace trace = Trace.read(new StringReader("0,43.65,-79.38,10,gps\n"));
+
+        assertSame(trace, trace.getTruth());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class TrackingStateMachineTest {
+    private static final long SECOND = 1000;
+    private static final long UNKNOWN = EtaEstimator.UNKNOWN;
+
+    @Test
+    public void gpsStaysUpUntilTheFirstFix() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+
+        assertEquals(TrackingStateMachine.STATE_UNKNOWN, tracking.getState());
+        assertTrue(tracking.isGpsWanted());
+        assertNull(tracking.getLastTransition());
+    }
+
+    @Test
+    public void farAwayIsCoarse() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+
+        assertTrue(tracking.update(0, 5000, 100, 50, UNKNOWN));
+        assertEquals(TrackingStateMachine.STATE_COARSE, tracking.getState());
+        assertFalse(tracking.isGpsWanted());
+        assertEquals("unknown -> coarse: 5000m to edge, ring 550m", tracking.getLastTransition());
+    }
+
+    @Test
+    public void approachRingAddsTheAccuracy() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+        tracking.update(0, 5000, 100, 50, UNKNOWN);
+
+        // the ring is the 500m margin plus the accuracy
+        assertFalse(tracking.update(SECOND, 560, 100, 50, UNKNOWN));
+        assertTrue(tracking.update(2 * SECOND, 560, 100, 100, UNKNOWN));
+        assertEquals(TrackingStateMachine.STATE_FINE, tracking.getState());
+    }
+
+    @Test
+    public void largeGeofencesGetALargerRing() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+        tracking.update(0, 5000, 2000, 0, UNKNOWN);
+
+        assertTrue(tracking.update(SECOND, 1900, 2000, 0, UNKNOWN));
+    }
+
+    @Test
+    public void leavingNeedsToBeFurtherOut() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+        tracking.update(0, 5000, 100, 0, UNKNOWN);
+        tracking.update(SECOND, 400, 100, 0, UNKNOWN);
+
+        assertFalse(tracking.update(2 * SECOND, 700, 100, 0, UNKNOWN));
+        assertTrue(tracking.isGpsWanted());
+
+        assertTrue(tracking.update(3 * SECOND, 800, 100, 0, UNKNOWN));
+        assertFalse(tracking.isGpsWanted());
+        assertEquals(3, tracking.getTransitionCount());
+    }
+
+    @Test
+    public void imminentArrivalBringsGpsUp() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+        tracking.update(0, 5000, 100, 0, UNKNOWN);
+
+        assertFalse(tracking.update(SECOND, 5000, 100, 0, 600));
+        assertTrue(tracking.update(2 * SECOND, 5000, 100, 0, 120));
+        assertTrue(tracking.getLastTransition().endsWith(", arriving in 120s"));
+    }
+
+    @Test
+    public void countsGpsTime() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+
+        // on from the first fix until it drops to coarse
+        tracking.update(10 * SECOND, 5000, 100, 0, UNKNOWN);
+        assertEquals(0, tracking.getGpsTime(10 * SECOND));
+
+        tracking.update(40 * SECOND, 400, 100, 0, UNKNOWN);
+        assertEquals(20 * SECOND, tracking.getGpsTime(60 * SECOND));
+
+        tracking.update(70 * SECOND, 5000, 100, 0, UNKNOWN);
+        assertEquals(30 * SECOND, tracking.getGpsTime(100 * SECOND));
+        assertEquals(90 * SECOND, tracking.getTrackingTime(100 * SECOND));
+    }
+
+    @Test
+    public void startingInsideTheRingCountsFromTheFirstFix() {
+        TrackingStateMachine tracking = new TrackingStateMachine();
+        tracking.update(10 * SECOND, 100, 100, 0, UNKNOWN);
+
+        assertEquals(TrackingStateMachine.STATE_FINE, tracking.getState());
+        assertEquals(15 * SECOND, tracking.getGpsTime(25 * SECOND));
+    }
+
+    @Test
+    public void preStageRadius() {
+        assertEquals(600, TrackingStateMachine.getPreStageRadius(100), 0);
+        assertEquals(4000, TrackingStateMachine.getPreStageRadius(2000), 0);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Matthew Precious
+ * 
+ */
+public class TriggerEvaluatorTest {
+    private static final long SECOND = 1000;
+    private static final double LAT = 43.65;
+    private static final double LNG = -79.38;
+
+    /**
+     * Reports every fix as if it were a fixed distance further north
+     */
+    private static class ShiftingFilter implements FixFilter {
+        private final Fix estimate = new Fix();
+        private final double meters;
+        private int resets;
+
+        public ShiftingFilter(double meters) {
+            this.meters = meters;
+        }
+
+        @Override
+        public Fix filter(Fix fix) {
+            return estimate.set(fix.getTime(), fix.getLatitude() + meters
+                    / GeoMath.METERS_PER_DEGREE, fix.getLongitude(), fix.getAccuracy(),
+                    fix.getProvider());
+        }
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+    }
+
+    private GeofenceRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new GeofenceRegistry();
+    }
+
+    private static Fix north(long time, double meters, float accuracy) {
+        return new Fix(time, LAT + meters / GeoMath.METERS_PER_DEGREE, LNG, accuracy,
+                Fix.PROVIDER_GPS);
+    }
+
+    private static Geofence geofence(long id, float radius, int filter) {
+        return new Geofence(id, GeoMath.toE6(LAT), GeoMath.toE6(LNG), radius, filter);
+    }
+
+    @Test
+    public void acceptsThenTriggers() {
+        Geofence geofence = geofence(1, 100, Geofence.FILTER_NONE);
+        registry.add(geofence);
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry, new ShiftingFilter(0));
+
+        assertNull(evaluator.getBestFix());
+        assertEquals(TriggerEvaluator.RESULT_ACCEPTED, evaluator.evaluate(north(0, 500, 10)));
+        assertNull(evaluator.getTriggered());
+
+        assertEquals(TriggerEvaluator.RESULT_TRIGGERED,
+                evaluator.evaluate(north(SECOND, 50, 10)));
+        assertSame(geofence, evaluator.getTriggered());
+        assertEquals(SECOND, evaluator.getBestFix().getTime());
+    }
+
+    @Test
+    public void rejectsWorseFixes() {
+        registry.add(geofence(1, 100, Geofence.FILTER_NONE));
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry, new ShiftingFilter(0));
+
+        evaluator.evaluate(north(10 * SECOND, 500, 10));
+
+        // older, and newer but much less accurate, even though both are inside
+        assertEquals(TriggerEvaluator.RESULT_REJECTED, evaluator.evaluate(north(0, 0, 10)));
+        assertEquals(TriggerEvaluator.RESULT_REJECTED,
+                evaluator.evaluate(new Fix(11 * SECOND, LAT, LNG, 800, Fix.PROVIDER_NETWORK)));
+        assertEquals(10 * SECOND, evaluator.getBestFix().getTime());
+        assertNull(evaluator.getTriggered());
+    }
+
+    @Test
+    public void reevaluateNeedsAFix() {
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry, new ShiftingFilter(0));
+
+        assertEquals(TriggerEvaluator.RESULT_REJECTED, evaluator.reevaluate());
+    }
+
+    @Test
+    public void reevaluateSeesGeofenceChanges() {
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry, new ShiftingFilter(0));
+        evaluator.evaluate(north(0, 50, 10));
+
+        assertEquals(TriggerEvaluator.RESULT_ACCEPTED, evaluator.reevaluate());
+
+        Geofence geofence = geofence(1, 100, Geofence.FILTER_NONE);
+        registry.add(geofence);
+        assertEquals(TriggerEvaluator.RESULT_TRIGGERED, evaluator.reevaluate());
+        assertSame(geofence, evaluator.getTriggered());
+
+        registry.remove(1);
+        assertEquals(TriggerEvaluator.RESULT_ACCEPTED, evaluator.reevaluate());
+        assertNull(evaluator.getTriggered());
+    }
+
+    @Test
+    public void smoothedGeofencesUseTheFilter() {
+        // the raw fix is outside both, the filtered one 300m further north is inside both
+        Geofence raw = new Geofence(1, GeoMath.toE6(LAT + 300 / GeoMath.METERS_PER_DEGREE),
+                GeoMath.toE6(LNG), 50, Geofence.FILTER_NONE);
+        Geofence smoothed = new Geofence(2, GeoMath.toE6(LAT + 300 / GeoMath.METERS_PER_DEGREE),
+                GeoMath.toE6(LNG), 60, Geofence.FILTER_SMOOTHED);
+        registry.add(raw);
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry, new ShiftingFilter(300));
+
+        assertEquals(TriggerEvaluator.RESULT_ACCEPTED, evaluator.evaluate(north(0, 0, 10)));
+
+        registry.add(smoothed);
+        assertEquals(TriggerEvaluator.RESULT_TRIGGERED, evaluator.reevaluate());
+        assertSame(smoothed, evaluator.getTriggered());
+    }
+
+    @Test
+    public void setFilterResetsIt() {
+        ShiftingFilter filter = new ShiftingFilter(0);
+        TriggerEvaluator evaluator = new TriggerEvaluator(registry);
+        evaluator.setFilter(filter);
+
+        assertEquals(1, filter.resets);
+    }
+}
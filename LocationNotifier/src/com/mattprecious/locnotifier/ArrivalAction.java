@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.Geofence;
+
+/**
+ * Something to do when the user arrives. Actions are run side by side by an
+ * {@link ArrivalPipeline}, each on its own thread, so they can block, but each is abandoned once
+ * its timeout runs out.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public interface ArrivalAction {
+
+    public String getName();
+
+    /**
+     * @return milliseconds the action gets before it's interrupted and given up on
+     */
+    public long getTimeout();
+
+    /**
+     * @param fix
+     *            The fix that triggered the arrival
+     * @param destination
+     *            Where the user arrived
+     */
+    public void run(Fix fix, Geofence destination) throws Exception;
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.util.Log;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.Geofence;
+
+/**
+ * Runs every {@link ArrivalAction} at once when the user arrives, so a slow action like a webhook
+ * can't hold up the notification. Actions that overrun their timeout are interrupted. The
+ * {@link Listener} hears about each action as soon as it completes, and once more when every
+ * action has completed, failed or timed out.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class ArrivalPipeline {
+    private static final String TAG = "ArrivalPipeline";
+
+    private final List<ArrivalAction> actions = new ArrayList<ArrivalAction>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public interface Listener {
+        /**
+         * Called on the action's thread as soon as it completes without throwing
+         */
+        public void onActionDone(ArrivalAction action);
+
+        /**
+         * Called on a pipeline thread once all the actions are done
+         */
+        public void onFinished();
+    }
+
+    public void add(ArrivalAction action) {
+        actions.add(action);
+    }
+
+    public void run(final Fix fix, final Geofence destination, final Listener listener) {
+        final long start = System.currentTimeMillis();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(actions.size());
+
+        for (final ArrivalAction action : actions) {
+            futures.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    action.run(fix, destination);
+                    listener.onActionDone(action);
+                    return null;
+                }
+            }));
+        }
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < actions.size(); i++) {
+                    await(actions.get(i), futures.get(i), start);
+                }
+
+                listener.onFinished();
+            }
+        });
+    }
+
+    /**
+     * Interrupts anything still running
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void await(ArrivalAction action, Future<?> future, long start) {
+        long remaining = start + action.getTimeout() - System.currentTimeMillis();
+
+        try {
+            future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            Log.d(TAG, action.getName() + " done after " + (System.currentTimeMillis() - start)
+                    + "ms");
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            Log.w(TAG, action.getName() + " timed out after " + action.getTimeout() + "ms");
+        } catch (ExecutionException e) {
+            Log.w(TAG, action.getName() + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.PhoneLookup;
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * Contact names by phone number, shared by the whole process. Lookups run on a background thread
+ * and answer on the main thread; after the first one a number answers straight from memory.
+ * Numbers are keyed with their separators stripped, so "(555) 123-4567" and "5551234567" share
+ * an entry. Any change to the contacts provider empties the cache and tells the change
+ * listeners, so they can look their numbers up again.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class ContactCache {
+
+    public interface OnResolvedListener {
+        /**
+         * @param name
+         *            The contact's name, or null if no contact has the number
+         */
+        public void onResolved(String number, String name);
+    }
+
+    public interface OnContactLoadedListener {
+        public void onContactLoaded(PickedContact contact);
+    }
+
+    public interface OnChangeListener {
+        public void onContactsChanged();
+    }
+
+    /**
+     * A contact chosen from the picker, with every number it has
+     */
+    public static class PickedContact {
+        /** Given name if there is one, otherwise the display name, or null */
+        public String name;
+        public String[] numbers;
+        public String[] labels;
+    }
+
+    private static ContactCache instance;
+
+    private final ContentResolver contentResolver;
+    private final Resources resources;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // guarded by this, a null value means no contact has the number
+    private final Map<String, String> names = new HashMap<String, String>();
+
+    // guarded by this, bumped whenever the cache is emptied so a lookup that was running at the
+    // time doesn't put back a name from before the change
+    private int generation;
+
+    private final List<OnChangeListener> changeListeners = new ArrayList<OnChangeListener>();
+
+    private ContactCache(Context context) {
+        contentResolver = context.getContentResolver();
+        resources = context.getResources();
+
+        contentResolver.registerContentObserver(Contacts.CONTENT_URI, true, new ContentObserver(
+                mainHandler) {
+
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        });
+    }
+
+    public static synchronized ContactCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ContactCache(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    public static String normalize(String number) {
+        return PhoneNumberUtils.stripSeparators(number);
+    }
+
+    /**
+     * Calls back straight away if the number is cached, otherwise on the main thread once it's
+     * been looked up. Must be called from the main thread.
+     */
+    public void resolve(final String number, final OnResolvedListener listener) {
+        final String key = normalize(number);
+
+        boolean cached;
+        String cachedName;
+        synchronized (this) {
+            cached = names.containsKey(key);
+            cachedName = names.get(key);
+        }
+
+        // outside the lock, the listener may well call back into the cache
+        if (cached) {
+            listener.onResolved(number, cachedName);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final String name = resolveNow(number);
+
+                mainHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        listener.onResolved(number, name);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Looks the number up on the calling thread if it isn't cached. Only call it from a
+     * background thread.
+     * 
+     * @return the contact's name, or null if no contact has the number
+     */
+    public String resolveNow(String number) {
+        String key = normalize(number);
+
+        int lookupGeneration;
+        synchronized (this) {
+            if (names.containsKey(key)) {
+                return names.get(key);
+            }
+
+            lookupGeneration = generation;
+        }
+
+        String name = null;
+
+        Uri uri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
+        String[] columns = new String[] { PhoneLookup.DISPLAY_NAME };
+        Cursor c = contentResolver.query(uri, columns, null, null, null);
+
+        if (c != null) {
+            if (c.moveToFirst()) {
+                name = c.getString(c.getColumnIndex(PhoneLookup.DISPLAY_NAME));
+            }
+
+            c.close();
+        }
+
+        synchronized (this) {
+            if (generation == lookupGeneration) {
+                names.put(key, name);
+            }
+        }
+
+        return name;
+    }
+
+    /**
+     * Reads the name and numbers of a contact from the picker in the background, calling back on
+     * the main thread
+     */
+    public void loadContact(final Uri contactUri, final OnContactLoadedListener listener) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final PickedContact contact = loadContactNow(contactUri);
+
+                mainHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        listener.onContactLoaded(contact);
+                    }
+                });
+            }
+        });
+    }
+
+    public void addOnChangeListener(OnChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeOnChangeListener(OnChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void invalidate() {
+        synchronized (this) {
+            names.clear();
+            generation++;
+        }
+
+        for (OnChangeListener listener : new ArrayList<OnChangeListener>(changeListeners)) {
+            listener.onContactsChanged();
+        }
+    }
+
+    private PickedContact loadContactNow(Uri contactUri) {
+        PickedContact contact = new PickedContact();
+
+        String contactId = contactUri.getLastPathSegment();
+
+        String[] columns = new String[] { StructuredName.DISPLAY_NAME, StructuredName.GIVEN_NAME };
+
+        String selection = Data.MIMETYPE + "=? AND " + StructuredName.CONTACT_ID + "=?";
+        String[] selectionArgs = new String[] { StructuredName.CONTENT_ITEM_TYPE, contactId, };
+
+        Cursor c = contentResolver.query(Data.CONTENT_URI, columns, selection, selectionArgs,
+                null);
+
+        String displayName = null;
+        if (c.moveToFirst()) {
+            displayName = c.getString(c.getColumnIndex(StructuredName.DISPLAY_NAME));
+
+            contact.name = c.getString(c.getColumnIndex(StructuredName.GIVEN_NAME));
+            if (contact.name == null) {
+                contact.name = displayName;
+            }
+        }
+
+        c.close();
+
+        columns = new String[] { Phone.NUMBER, Phone.TYPE, Phone.LABEL };
+        c = contentResolver.query(Phone.CONTENT_URI, columns, Phone.CONTACT_ID + "=?",
+                new String[] { contactId }, null);
+
+        contact.numbers = new String[c.getCount()];
+        contact.labels = new String[c.getCount()];
+
+        while (c.moveToNext()) {
+            String phoneNumber = c.getString(c.getColumnIndex(Phone.NUMBER));
+            int phoneType = c.getInt(c.getColumnIndex(Phone.TYPE));
+
+            String phoneLabel = "";
+            if (phoneType == Phone.TYPE_CUSTOM) {
+                phoneLabel = c.getString(c.getColumnIndex(Phone.LABEL));
+            } else {
+                phoneLabel = (String) Phone.getTypeLabel(resources, phoneType, "");
+            }
+
+            contact.numbers[c.getPosition()] = phoneNumber;
+            contact.labels[c.getPosition()] = "(" + phoneLabel + ") " + phoneNumber;
+
+            // whichever number gets picked, its name is already known
+            synchronized (this) {
+                names.put(normalize(phoneNumber), displayName);
+            }
+        }
+
+        c.close();
+
+        return contact;
+    }
+}
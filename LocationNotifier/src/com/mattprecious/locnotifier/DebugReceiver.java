@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Debugging entry point for adb. It's exported but guarded by the DUMP permission, which the
+ * shell holds and other apps can't get. To write the fix journal to fixes.csv in the app's files
+ * directory:
+ * 
+ * <pre>
+ * adb shell am broadcast -a com.mattprecious.locnotifier.DUMP_JOURNAL \
+ *         -n com.mattprecious.locnotifier/.DebugReceiver
+ * </pre>
+ * 
+ * While tracking the request goes on to {@link LocationService}, which also writes its metrics.
+ * Otherwise the stored journal is written without starting the service.
+ * 
+ * {@link #ACTION_REPLAY} starts tracking against a recorded trace instead of the real providers;
+ * see {@link ReplayLocationSource} for the extras.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class DebugReceiver extends BroadcastReceiver {
+    private static final String TAG = "DebugReceiver";
+
+    /** Start tracking with the replay extras passed along to {@link LocationService} */
+    public static final String ACTION_REPLAY = "com.mattprecious.locnotifier.REPLAY";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (LocationService.ACTION_DUMP_JOURNAL.equals(intent.getAction())) {
+            if (LocationService.isRunning()) {
+                context.startService(new Intent(context, LocationService.class)
+                        .setAction(LocationService.ACTION_DUMP_JOURNAL));
+            } else {
+                LocationService.dumpStoredJournal(context);
+            }
+        } else if (ACTION_REPLAY.equals(intent.getAction())) {
+            if (LocationService.isRunning()) {
+                Log.w(TAG, "Stop tracking before starting a replay");
+                return;
+            }
+
+            Intent service = new Intent(context, LocationService.class);
+            service.putExtras(intent);
+            context.startService(service);
+        }
+    }
+}
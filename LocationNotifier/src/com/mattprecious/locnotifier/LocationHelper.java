@@ -16,15 +16,27 @@
 
 package com.mattprecious.locnotifier;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import android.content.Context;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
+import android.location.LocationManager;
+import android.os.Environment;
+import android.util.Log;
 
 import com.google.android.maps.GeoPoint;
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.FixComparator;
+import com.mattprecious.locnotifier.core.GeoMath;
+import com.mattprecious.locnotifier.core.GeocodeCache;
+import com.mattprecious.locnotifier.core.PlaceIndex;
 
 /**
  * 
@@ -32,7 +44,21 @@ import com.google.android.maps.GeoPoint;
  * 
  */
 public class LocationHelper {
-    private static final int TWO_MINUTES = 1000 * 60 * 2;
+    private static final String GEOCODE_CACHE_DIR = "geocode";
+    private static final int GEOCODE_MEMORY_ENTRIES = 32;
+    private static final long GEOCODE_DISK_BYTES = 256 * 1024;
+    private static final long GEOCODE_TTL = 7 * 24 * 60 * 60 * 1000L;
+    private static final long GEOCODE_EMPTY_TTL = 60 * 60 * 1000L;
+
+    private static final String PLACE_INDEX_FILE = "places.idx";
+    private static final String GAZETTEER_PATH = "LocationNotifier/places.txt";
+    private static final int PLACE_RESULTS = 10;
+
+    private static GeocodeCache geocodeCache;
+
+    private static final Object placeIndexLock = new Object();
+    private static PlaceIndex placeIndex;
+    private static boolean placeIndexLoaded;
 
     /**
      * Determines whether one Location reading is better than the current
@@ -46,85 +72,284 @@ public class LocationHelper {
      */
     public static boolean isBetterLocation(Location location, Location currentBestLocation) {
         if (currentBestLocation == null) {
-            // A new location is always better than no location
             return true;
         }
 
-        // Check whether the new location fix is newer or older
-        long timeDelta = location.getTime() - currentBestLocation.getTime();
-        boolean isSignificantlyNewer = timeDelta > TWO_MINUTES;
-        boolean isSignificantlyOlder = timeDelta < -TWO_MINUTES;
-        boolean isNewer = timeDelta > 0;
+        return FixComparator.isBetter(toFix(location), toFix(currentBestLocation));
+    }
 
-        // If it's been more than two minutes since the current location, use the new location
-        // because the user has likely moved
-        if (isSignificantlyNewer) {
-            return true;
-            // If the new location is more than two minutes older, it must be
-            // worse
-        } else if (isSignificantlyOlder) {
-            return false;
+    public static Fix toFix(Location location) {
+        return toFix(location, new Fix());
+    }
+
+    /**
+     * Copies a Location into an existing Fix
+     * 
+     * @return the passed in fix
+     */
+    public static Fix toFix(Location location, Fix fix) {
+        fix.set(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), getProviderId(location.getProvider()));
+
+        if (location.hasSpeed()) {
+            fix.setSpeed(location.getSpeed());
         }
 
-        // Check whether the new location fix is more or less accurate
-        int accuracyDelta = (int) (location.getAccuracy() - currentBestLocation.getAccuracy());
-        boolean isLessAccurate = accuracyDelta > 0;
-        boolean isMoreAccurate = accuracyDelta < 0;
-        boolean isSignificantlyLessAccurate = accuracyDelta > 200;
+        if (location.hasBearing()) {
+            fix.setBearing(location.getBearing());
+        }
 
-        // Check if the old and new location are from the same provider
-        boolean isFromSameProvider = isSameProvider(location.getProvider(),
-                currentBestLocation.getProvider());
+        return fix;
+    }
 
-        // Determine location quality using a combination of timeliness and accuracy
-        if (isMoreAccurate) {
-            return true;
-        } else if (isNewer && !isLessAccurate) {
-            return true;
-        } else if (isNewer && !isSignificantlyLessAccurate && isFromSameProvider) {
-            return true;
+    /**
+     * Creates a Location from a Fix, the reverse of {@link #toFix(Location)}
+     */
+    public static Location toLocation(Fix fix) {
+        Location location = new Location(getProviderName(fix.getProvider()));
+        location.setTime(fix.getTime());
+        location.setLatitude(fix.getLatitude());
+        location.setLongitude(fix.getLongitude());
+        location.setAccuracy(fix.getAccuracy());
+
+        if (fix.hasSpeed()) {
+            location.setSpeed(fix.getSpeed());
         }
-        return false;
+
+        if (fix.hasBearing()) {
+            location.setBearing(fix.getBearing());
+        }
+
+        return location;
     }
 
-    /** Checks whether two providers are the same */
-    private static boolean isSameProvider(String provider1, String provider2) {
-        if (provider1 == null) {
-            return provider2 == null;
+    public static String getProviderName(int provider) {
+        switch (provider) {
+            case Fix.PROVIDER_GPS:
+                return LocationManager.GPS_PROVIDER;
+            case Fix.PROVIDER_NETWORK:
+                return LocationManager.NETWORK_PROVIDER;
+            case Fix.PROVIDER_PASSIVE:
+                return LocationManager.PASSIVE_PROVIDER;
+            default:
+                return "";
         }
-        return provider1.equals(provider2);
+    }
+
+    public static int getProviderId(String provider) {
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            return Fix.PROVIDER_GPS;
+        } else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+            return Fix.PROVIDER_NETWORK;
+        } else if (LocationManager.PASSIVE_PROVIDER.equals(provider)) {
+            return Fix.PROVIDER_PASSIVE;
+        }
+
+        return Fix.PROVIDER_UNKNOWN;
+    }
+
+    public static GeoPoint getPoint(Location location) {
+        return new GeoPoint(GeoMath.toE6(location.getLatitude()),
+                GeoMath.toE6(location.getLongitude()));
     }
 
     public static GeoPoint getFirstPointFromSearch(Context context, String address) {
         List<Address> addressList = stringToAddresses(context, address);
 
-        if (addressList == null) {
+        if (addressList == null || addressList.isEmpty()) {
             return null;
         }
 
         return addressToPoint(addressList.get(0));
     }
 
+    /**
+     * Geocodes a query, answering from the cache when it can. If the geocoder can't be reached an
+     * expired answer is better than none.
+     * 
+     * @return the matching addresses, or null if the geocoder failed and nothing was cached
+     */
     public static List<Address> stringToAddresses(Context context, String address) {
+        GeocodeCache cache = getGeocodeCache(context);
+
+        List<GeocodeCache.Place> places = cache.get(address, System.currentTimeMillis());
+        if (places != null) {
+            return placesToAddresses(places);
+        }
+
         try {
             Geocoder coder = new Geocoder(context);
             List<Address> result = coder.getFromLocationName(address, 10);
 
+            if (result != null) {
+                cache.put(address, addressesToPlaces(result), System.currentTimeMillis());
+            }
+
             return result;
         } catch (IOException e) {
+            places = cache.getStale(address);
+            if (places != null) {
+                Log.d(LocationHelper.class.getSimpleName(), "Geocoder unavailable, using stale "
+                        + "results for " + address);
+                return placesToAddresses(places);
+            }
+
             return null;
         }
     }
 
+    public static synchronized GeocodeCache getGeocodeCache(Context context) {
+        if (geocodeCache == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), GEOCODE_CACHE_DIR);
+            geocodeCache = new GeocodeCache(dir, GEOCODE_MEMORY_ENTRIES, GEOCODE_DISK_BYTES,
+                    GEOCODE_TTL, GEOCODE_EMPTY_TTL);
+        }
+
+        return geocodeCache;
+    }
+
+    /**
+     * @return where the settings look for a gazetteer to import
+     */
+    public static File getGazetteerFile() {
+        return new File(Environment.getExternalStorageDirectory(), GAZETTEER_PATH);
+    }
+
+    /**
+     * Loads the imported place index the first time it's asked for, which takes a moment for a
+     * large one, so call this off the main thread
+     * 
+     * @return the index, or null if none has been imported
+     */
+    public static PlaceIndex getPlaceIndex(Context context) {
+        synchronized (placeIndexLock) {
+            if (!placeIndexLoaded) {
+                placeIndexLoaded = true;
+
+                File file = new File(context.getFilesDir(), PLACE_INDEX_FILE);
+                if (file.exists()) {
+                    try {
+                        placeIndex = PlaceIndex.load(file);
+                    } catch (IOException e) {
+                        Log.w(LocationHelper.class.getSimpleName(), "Unable to load places", e);
+                    }
+                }
+            }
+
+            return placeIndex;
+        }
+    }
+
+    /**
+     * Builds a place index from a gazetteer and saves it for {@link #getPlaceIndex(Context)}
+     */
+    public static PlaceIndex importPlaces(Context context, File gazetteer) throws IOException {
+        FileReader reader = new FileReader(gazetteer);
+        PlaceIndex index;
+        try {
+            index = PlaceIndex.importGazetteer(reader);
+        } finally {
+            reader.close();
+        }
+
+        index.save(new File(context.getFilesDir(), PLACE_INDEX_FILE));
+
+        synchronized (placeIndexLock) {
+            placeIndex = index;
+            placeIndexLoaded = true;
+        }
+
+        return index;
+    }
+
+    /**
+     * Looks a query up in the offline place index, nearest and largest places first
+     * 
+     * @param near
+     *            Location to bias towards, or null
+     * @return the matching places, empty if there are none or no index has been imported
+     */
+    public static List<Address> searchPlaces(Context context, String query, Location near) {
+        List<Address> addresses = new ArrayList<Address>();
+
+        PlaceIndex index = getPlaceIndex(context);
+        if (index == null) {
+            return addresses;
+        }
+
+        double latitude = near == null ? Double.NaN : near.getLatitude();
+        double longitude = near == null ? Double.NaN : near.getLongitude();
+
+        for (PlaceIndex.Result result : index.search(query, latitude, longitude, PLACE_RESULTS)) {
+            Address address = new Address(Locale.getDefault());
+            address.setFeatureName(result.name);
+            address.setLatitude(result.latitude);
+            address.setLongitude(result.longitude);
+
+            addresses.add(address);
+        }
+
+        return addresses;
+    }
+
+    private static List<GeocodeCache.Place> addressesToPlaces(List<Address> addresses) {
+        List<GeocodeCache.Place> places = new ArrayList<GeocodeCache.Place>(addresses.size());
+
+        for (Address address : addresses) {
+            GeocodeCache.Place place = new GeocodeCache.Place();
+            place.latitude = address.getLatitude();
+            place.longitude = address.getLongitude();
+
+            // getMaxAddressLineIndex() is -1 when there are no lines
+            place.lines = new String[address.getMaxAddressLineIndex() + 1];
+            for (int i = 0; i < place.lines.length; i++) {
+                String line = address.getAddressLine(i);
+                place.lines[i] = line == null ? "" : line;
+            }
+
+            place.featureName = address.getFeatureName();
+            place.thoroughfare = address.getThoroughfare();
+            place.locality = address.getLocality();
+            place.postalCode = address.getPostalCode();
+            place.countryCode = address.getCountryCode();
+
+            places.add(place);
+        }
+
+        return places;
+    }
+
+    private static List<Address> placesToAddresses(List<GeocodeCache.Place> places) {
+        List<Address> addresses = new ArrayList<Address>(places.size());
+
+        for (GeocodeCache.Place place : places) {
+            Address address = new Address(Locale.getDefault());
+            address.setLatitude(place.latitude);
+            address.setLongitude(place.longitude);
+
+            for (int i = 0; i < place.lines.length; i++) {
+                address.setAddressLine(i, place.lines[i]);
+            }
+
+            address.setFeatureName(place.featureName);
+            address.setThoroughfare(place.thoroughfare);
+            address.setLocality(place.locality);
+            address.setPostalCode(place.postalCode);
+            address.setCountryCode(place.countryCode);
+
+            addresses.add(address);
+        }
+
+        return addresses;
+    }
+
     public static GeoPoint addressToPoint(Address address) {
         if (address == null) {
             return null;
         }
 
-        int latitude = (int) (address.getLatitude() * 1E6);
-        int longitude = (int) (address.getLongitude() * 1E6);
-
-        return new GeoPoint(latitude, longitude);
+        return new GeoPoint(GeoMath.toE6(address.getLatitude()),
+                GeoMath.toE6(address.getLongitude()));
     }
 
     public static String addressToString(Address address) {
@@ -138,6 +363,11 @@ public class LocationHelper {
             builder.append(address.getAddressLine(i));
         }
 
+        // places from the offline index only have a name
+        if (builder.length() == 0 && address.getFeatureName() != null) {
+            builder.append(address.getFeatureName());
+        }
+
         return builder.toString();
     }
 }
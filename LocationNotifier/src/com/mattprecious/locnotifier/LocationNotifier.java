@@ -16,6 +16,10 @@
 
 package com.mattprecious.locnotifier;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
@@ -28,10 +32,10 @@ import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.database.Cursor;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.preference.Preference;
@@ -40,12 +44,10 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceScreen;
 import android.preference.RingtonePreference;
-import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.Data;
-import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.TelephonyManager;
+import android.util.Log;
+import android.widget.Toast;
 
 import com.google.android.maps.GeoPoint;
 
@@ -61,6 +63,17 @@ public class LocationNotifier extends PreferenceActivity {
     private SharedPreferences preferences;
     private OnSharedPreferenceChangeListener prefListener;
 
+    private ContactCache contactCache;
+    private ImportTask importTask;
+    private final ContactCache.OnChangeListener contactsListener =
+            new ContactCache.OnChangeListener() {
+
+                @Override
+                public void onContactsChanged() {
+                    updateSMSContact();
+                }
+            };
+
     private PreferenceCategory statusCategory;
 
     private Preference destinationPreference;
@@ -77,6 +90,7 @@ public class LocationNotifier extends PreferenceActivity {
     private Preference smsContactPreference;
     private EditTextPreference smsMessagePreference;
 
+    private Preference importPlacesPreference;
     private Preference translatePreference;
 
     private final int REQUEST_CODE_CONTACT_PICKER = 1;
@@ -93,6 +107,7 @@ public class LocationNotifier extends PreferenceActivity {
         addPreferencesFromResource(R.xml.main);
 
         preferences = ((PreferenceScreen) findPreference("preferences")).getSharedPreferences();
+        contactCache = ContactCache.getInstance(this);
 
         statusCategory = (PreferenceCategory) findPreference("category_status");
         destinationPreference = (Preference) findPreference("set_destination");
@@ -109,6 +124,7 @@ public class LocationNotifier extends PreferenceActivity {
         smsContactPreference = (Preference) findPreference("sms_contact");
         smsMessagePreference = (EditTextPreference) findPreference("sms_message");
 
+        importPlacesPreference = (Preference) findPreference("import_places");
         translatePreference = (Preference) findPreference("translate");
 
         TelephonyManager telephonyManager = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
@@ -158,6 +174,25 @@ public class LocationNotifier extends PreferenceActivity {
             }
         });
 
+        importPlacesPreference.setSummary(getString(R.string.options_import_places_summary,
+                LocationHelper.getGazetteerFile()));
+        importPlacesPreference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                File gazetteer = LocationHelper.getGazetteerFile();
+                if (!gazetteer.exists()) {
+                    Toast.makeText(getApplicationContext(),
+                            getString(R.string.options_import_places_missing, gazetteer),
+                            Toast.LENGTH_LONG).show();
+                    return true;
+                }
+
+                new ImportPlacesTask().execute(gazetteer);
+                return true;
+            }
+        });
+
         translatePreference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
 
             @Override
@@ -185,17 +220,11 @@ public class LocationNotifier extends PreferenceActivity {
 
         preferences.registerOnSharedPreferenceChangeListener(prefListener);
 
+        // geocoding can take seconds, so the settings show while it runs
         Bundle extras = getIntent().getExtras();
         if (extras != null && extras.containsKey(Intent.EXTRA_TEXT)) {
-            String location = extras.getString(Intent.EXTRA_TEXT);
-            location = location.split("\n")[0];
-
-            GeoPoint point = LocationHelper.getFirstPointFromSearch(getApplicationContext(),
-                    location);
-
-            if (point != null) {
-                setDestination(point);
-            }
+            importTask = new ImportTask();
+            importTask.execute(extras.getString(Intent.EXTRA_TEXT));
         }
 
         // debug the change log
@@ -212,80 +241,68 @@ public class LocationNotifier extends PreferenceActivity {
         updateStartGo();
         updateSMSContact();
         updateTone();
+
+        contactCache.addOnChangeListener(contactsListener);
     }
 
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (resultCode == RESULT_OK) {
-            switch (requestCode) {
-                case REQUEST_CODE_CONTACT_PICKER:
-                    Uri contactUri = data.getData();
+    protected void onPause() {
+        super.onPause();
 
-                    String contactId = contactUri.getLastPathSegment();
+        contactCache.removeOnChangeListener(contactsListener);
+    }
 
-                    String[] columns = new String[] { StructuredName.DISPLAY_NAME,
-                            StructuredName.GIVEN_NAME };
+    @Override
+    protected void onDestroy() {
+        if (importTask != null) {
+            importTask.cancel(true);
+        }
 
-                    String selection = Data.MIMETYPE + "=? AND " + StructuredName.CONTACT_ID + "=?";
-                    String[] selectionArgs = new String[] { StructuredName.CONTENT_ITEM_TYPE,
-                            contactId, };
+        super.onDestroy();
+    }
 
-                    Cursor c = getContentResolver().query(Data.CONTENT_URI, columns, selection,
-                            selectionArgs, null);
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode == RESULT_OK) {
+            switch (requestCode) {
+                case REQUEST_CODE_CONTACT_PICKER:
+                    contactCache.loadContact(data.getData(),
+                            new ContactCache.OnContactLoadedListener() {
 
-                    contactName = null;
-                    if (c.moveToFirst()) {
-                        contactName = c.getString(c.getColumnIndex(StructuredName.GIVEN_NAME));
-                        if (contactName == null) {
-                            contactName = c
-                                    .getString(c.getColumnIndex(StructuredName.DISPLAY_NAME));
-                        }
-                    }
+                                @Override
+                                public void onContactLoaded(ContactCache.PickedContact contact) {
+                                    if (!isFinishing()) {
+                                        contactPicked(contact);
+                                    }
+                                }
+                            });
 
-                    c.close();
+                    return;
+            }
+        }
 
-                    columns = new String[] { Phone.NUMBER, Phone.TYPE, Phone.LABEL };
-                    c = getContentResolver().query(Phone.CONTENT_URI, columns,
-                            Phone.CONTACT_ID + "=?", new String[] { contactId }, null);
+        super.onActivityResult(requestCode, resultCode, data);
+    }
 
-                    if (c.getCount() == 1 && c.moveToFirst()) {
-                        Editor editor = preferences.edit();
-                        editor.putString("sms_contact", c.getString(c.getColumnIndex(Phone.NUMBER)));
-                        editor.commit();
-                    } else if (c.getCount() > 1) {
-                        phoneNumbers = new String[c.getCount()];
-                        phoneLabels = new String[c.getCount()];
-
-                        while (c.moveToNext()) {
-                            String phoneNumber = c.getString(c.getColumnIndex(Phone.NUMBER));
-                            int phoneType = c.getInt(c.getColumnIndex(Phone.TYPE));
-
-                            String phoneLabel = "";
-                            if (phoneType == Phone.TYPE_CUSTOM) {
-                                phoneLabel = c.getString(c.getColumnIndex(Phone.LABEL));
-                            } else {
-                                phoneLabel = (String) Phone.getTypeLabel(getResources(), phoneType,
-                                        "");
-                            }
+    private void contactPicked(ContactCache.PickedContact contact) {
+        contactName = contact.name;
 
-                            phoneNumbers[c.getPosition()] = phoneNumber;
-                            phoneLabels[c.getPosition()] = "(" + phoneLabel + ") " + phoneNumber;
-                        }
+        if (contact.numbers.length == 1) {
+            Editor editor = preferences.edit();
+            editor.putString("sms_contact", contact.numbers[0]);
+            editor.commit();
 
-                        removeDialog(DIALOG_ID_PHONE_PICKER);
-                        showDialog(DIALOG_ID_PHONE_PICKER);
-                    } else {
-                        removeDialog(DIALOG_ID_PHONE_PICKER_NO_NUMBERS);
-                        showDialog(DIALOG_ID_PHONE_PICKER_NO_NUMBERS);
-                    }
+            updateSMSContact();
+        } else if (contact.numbers.length > 1) {
+            phoneNumbers = contact.numbers;
+            phoneLabels = contact.labels;
 
-                    c.close();
-
-                    return;
-            }
+            removeDialog(DIALOG_ID_PHONE_PICKER);
+            showDialog(DIALOG_ID_PHONE_PICKER);
+        } else {
+            removeDialog(DIALOG_ID_PHONE_PICKER_NO_NUMBERS);
+            showDialog(DIALOG_ID_PHONE_PICKER_NO_NUMBERS);
         }
-
-        super.onActivityResult(requestCode, resultCode, data);
     }
 
     @Override
@@ -398,25 +415,22 @@ public class LocationNotifier extends PreferenceActivity {
     private void updateSMSContact() {
         String number = preferences.getString("sms_contact", null);
 
-        String summary = null;
-        if (number != null) {
-            Uri uri = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number));
-
-            String[] columns = new String[] { PhoneLookup.DISPLAY_NAME };
-            Cursor c = getContentResolver().query(uri, columns, null, null, null);
+        // show the number until the name is known, cached names come back straight away
+        smsContactPreference.setSummary(number);
 
-            if (c.moveToFirst()) {
-                summary = c.getString(c.getColumnIndex(PhoneLookup.DISPLAY_NAME));
-            }
-
-            c.close();
-        }
-
-        if (summary == null) {
-            summary = number;
+        if (number != null) {
+            contactCache.resolve(number, new ContactCache.OnResolvedListener() {
+
+                @Override
+                public void onResolved(String resolvedNumber, String name) {
+                    // the recipient could have changed while this was loading
+                    if (name != null
+                            && resolvedNumber.equals(preferences.getString("sms_contact", null))) {
+                        smsContactPreference.setSummary(name);
+                    }
+                }
+            });
         }
-
-        smsContactPreference.setSummary(summary);
     }
 
     /**
@@ -460,4 +474,70 @@ public class LocationNotifier extends PreferenceActivity {
 
         }
     }
-}
\ No newline at end of file
+
+    public class ImportTask extends AsyncTask<String, Void, List<SharedTextImport.Candidate>> {
+
+        @Override
+        protected List<SharedTextImport.Candidate> doInBackground(String... text) {
+            return SharedTextImport.findCandidates(getApplicationContext(), text[0],
+                    new SharedTextImport.Cancellable() {
+
+                        @Override
+                        public boolean isCancelled() {
+                            return ImportTask.this.isCancelled();
+                        }
+                    });
+        }
+
+        @Override
+        protected void onPostExecute(List<SharedTextImport.Candidate> candidates) {
+            importTask = null;
+
+            if (candidates.isEmpty()) {
+                Toast.makeText(getApplicationContext(), R.string.no_results, Toast.LENGTH_SHORT)
+                        .show();
+                return;
+            }
+
+            setDestination(candidates.get(0).point);
+        }
+    }
+
+    public class ImportPlacesTask extends AsyncTask<File, Void, Integer> {
+        private File gazetteer;
+
+        @Override
+        protected void onPreExecute() {
+            importPlacesPreference.setEnabled(false);
+            importPlacesPreference.setSummary(R.string.options_import_places_running);
+        }
+
+        @Override
+        protected Integer doInBackground(File... files) {
+            gazetteer = files[0];
+
+            try {
+                return LocationHelper.importPlaces(getApplicationContext(), gazetteer).size();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Unable to import " + gazetteer, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            importPlacesPreference.setEnabled(true);
+            importPlacesPreference.setSummary(getString(R.string.options_import_places_summary,
+                    gazetteer));
+
+            String message;
+            if (count == null) {
+                message = getString(R.string.options_import_places_failed, gazetteer);
+            } else {
+                message = getString(R.string.options_import_places_count, count, gazetteer);
+            }
+
+            Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+        }
+    }
+}
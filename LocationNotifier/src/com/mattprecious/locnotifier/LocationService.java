@@ -16,9 +16,10 @@
 
 package com.mattprecious.locnotifier;
 
-import android.annotation.TargetApi;
-import android.app.Notification;
-import android.app.NotificationManager;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
@@ -27,35 +28,130 @@ import android.content.SharedPreferences;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.media.RingtoneManager;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
 import android.preference.PreferenceManager;
-import android.support.v4.app.NotificationCompat;
-import android.telephony.SmsManager;
 import android.util.Log;
 
+import com.mattprecious.locnotifier.core.EtaEstimator;
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.FixJournal;
+import com.mattprecious.locnotifier.core.GeoMath;
+import com.mattprecious.locnotifier.core.Geofence;
+import com.mattprecious.locnotifier.core.GeofenceRegistry;
+import com.mattprecious.locnotifier.core.PipelineMetrics;
+import com.mattprecious.locnotifier.core.SamplingScheduler;
+import com.mattprecious.locnotifier.core.Trace;
+import com.mattprecious.locnotifier.core.TraceReplayer;
+import com.mattprecious.locnotifier.core.TrackingStateMachine;
+import com.mattprecious.locnotifier.core.TriggerEvaluator;
+
 /**
+ * Fixes are processed on a dedicated tracking thread. Only notification updates and the arrival
+ * alert are handed back to the main thread.
+ * 
+ * In low power mode no listener is registered at first. A platform proximity alert watches a
+ * wide ring around the destination, and tracking only starts once it reports the ring entered.
  * 
  * @author Matthew Precious
  * 
  */
 public class LocationService extends Service {
+    /**
+     * Write the fix journal out as CSV, and the pipeline metrics as text if tracking, without
+     * interrupting tracking. Sent by {@link DebugReceiver} only while tracking, otherwise the
+     * receiver dumps the stored journal itself.
+     */
+    public static final String ACTION_DUMP_JOURNAL = "com.mattprecious.locnotifier.DUMP_JOURNAL";
+
+    /** Apply changed destination, radius and GPS preferences without restarting tracking */
+    public static final String ACTION_RELOAD = "com.mattprecious.locnotifier.RELOAD";
+
+    /** Sent by the platform proximity alert armed in low power mode */
+    public static final String ACTION_PROXIMITY = "com.mattprecious.locnotifier.PROXIMITY";
+
+    private static final String JOURNAL_FILE = "fixes.journal";
+    private static final String JOURNAL_DUMP_FILE = "fixes.csv";
+    private static final int JOURNAL_CAPACITY = 8192;
+    private static final String METRICS_FILE = "metrics.txt";
+
+    // how often the running notification may change
+    private static final long NOTIFICATION_INTERVAL = 1000;
 
     private SharedPreferences preferences;
 
-    private NotificationManager notificationManager;
-    private Notification runningNotification;
+    private RunningNotification runningNotification;
 
-    private LocationManager locationManager;
+    private LocationSource locationSource;
     private LocationListener locationListener;
+    private SamplingScheduler samplingScheduler;
+    private EtaEstimator etaEstimator;
+    private TrackingStateMachine trackingState;
+    private boolean gpsEnabled;
+
+    // waiting on the platform proximity alert instead of listening for fixes
+    private boolean preStage = false;
+    private PendingIntent proximityIntent;
+
+    private HandlerThread trackingThread;
+    private Handler trackingHandler;
+    private Handler mainHandler;
+
+    // latest distance for the main thread to show, written by the tracking thread
+    private volatile float notificationDistance;
+    private boolean arrived = false;
+
+    // System.nanoTime() of the latest notification update and of the fix that triggered
+    private volatile long notificationPostedAt;
+    private volatile long triggerReceivedAt;
+
+    // the fix behind the latest notification update, for its latency
+    private volatile int notificationProvider;
+    private volatile float notificationAccuracy;
+
+    private final Runnable notificationUpdater = new Runnable() {
+
+        @Override
+        public void run() {
+            runningNotification.update(notificationDistance);
+            metrics.recordLatency(PipelineMetrics.STAGE_NOTIFICATION, notificationProvider,
+                    notificationAccuracy, System.nanoTime() - notificationPostedAt);
+        }
+    };
+
+    private final Runnable arrivalAlert = new Runnable() {
+
+        @Override
+        public void run() {
+            approachingDestination();
+        }
+    };
+
+    private Geofence destination;
+
+    // alert this many seconds before the predicted arrival, 0 to wait for the radius
+    private long etaAlert;
+
+    private GeofenceRegistry geofences;
+    private TriggerEvaluator triggerEvaluator;
+
+    // opened on the tracking thread, null until then
+    private volatile FixJournal journal;
+    private final PipelineMetrics metrics = new PipelineMetrics();
 
-    private Location destination;
-    private float radius;
+    private ArrivalPipeline arrivalPipeline;
+    private NotificationAction notificationAction;
 
-    private Location bestLocation;
+    // copy of the fix that triggered, for the arrival actions
+    private final Fix arrivalFix = new Fix();
+
+    // reused for every incoming location so the listener doesn't allocate
+    private final Fix fix = new Fix();
 
     private static boolean isRunning = false;
 
@@ -63,28 +159,59 @@ public class LocationService extends Service {
     public void onCreate() {
         super.onCreate();
 
-        LocationService.isRunning = true;
         preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        mainHandler = new Handler();
+    }
 
-        updateRunningNotification();
+    /**
+     * Sets up tracking and goes to the foreground. Only done for a request to start tracking, so
+     * any other action sent to a stopped service doesn't flash the running notification.
+     */
+    private void startTracking(Intent intent) {
+        LocationService.isRunning = true;
 
-        int lat = preferences.getInt("dest_lat", 0);
-        int lng = preferences.getInt("dest_lng", 0);
+        runningNotification = new RunningNotification(this, preferences, NOTIFICATION_INTERVAL);
+        runningNotification.start();
+
+        geofences = new GeofenceRegistry();
+        loadDestination();
+
+        triggerEvaluator = new TriggerEvaluator(geofences);
+
+        samplingScheduler = new SamplingScheduler();
+        etaEstimator = new EtaEstimator();
+        trackingState = new TrackingStateMachine();
+
+        notificationAction = new NotificationAction(this, preferences);
 
-        destination = new Location("");
-        destination.setLatitude(lat / 1E6);
-        destination.setLongitude(lng / 1E6);
+        arrivalPipeline = new ArrivalPipeline();
+        arrivalPipeline.add(notificationAction);
+        arrivalPipeline.add(new SmsAction(this, preferences));
+        arrivalPipeline.add(new WebhookAction(preferences));
 
-        radius = preferences.getFloat("dest_radius", 0);
+        Intent proximityStart = new Intent(this, LocationService.class).setAction(ACTION_PROXIMITY);
+        proximityIntent = PendingIntent.getService(this, 0, proximityStart, 0);
 
-        notificationManager = (NotificationManager) getApplicationContext().getSystemService(
-                Context.NOTIFICATION_SERVICE);
-        locationManager = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
+        trackingThread = new HandlerThread("LocationService", Process.THREAD_PRIORITY_BACKGROUND);
+        trackingThread.start();
+        trackingHandler = new Handler(trackingThread.getLooper());
+
+        // opening the journal maps a file, keep it off the main thread
+        trackingHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                openJournal();
+            }
+        });
 
         locationListener = new LocationListener() {
             public void onLocationChanged(Location location) {
-                Log.d(getClass().getSimpleName(), "Location changed");
-                updateLocation(location);
+                long received = System.nanoTime();
+
+                Log.d(LocationService.class.getSimpleName(), "Location changed");
+                samplingScheduler.onFix();
+                updateLocation(location, received);
             }
 
             public void onStatusChanged(String provider, int status, Bundle extras) {
@@ -97,21 +224,165 @@ public class LocationService extends Service {
             }
         };
 
-        locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0,
-                locationListener);
+        ReplayLocationSource replaySource = ReplayLocationSource.fromIntent(this, intent);
+
+        if (replaySource != null) {
+            final Trace trace = replaySource.getTrace();
 
-        if (preferences.getBoolean("use_gps", false)) {
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0,
-                    locationListener);
+            // run the same trace headless first so the live replay has something to compare to.
+            // A long trace takes a while, so this goes ahead of the registration on the tracking
+            // thread rather than holding up the main thread.
+            trackingHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    TraceReplayer.Result expected = TraceReplayer.replay(trace,
+                            new TriggerEvaluator(geofences), new TrackingStateMachine(),
+                            preferences.getBoolean("low_power", false));
+                    Log.d(LocationService.class.getSimpleName(), "Replaying trace, expecting "
+                            + expected);
+                }
+            });
+
+            locationSource = replaySource;
+        } else {
+            locationSource = new SystemLocationSource(this);
         }
 
+        trackingHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (preferences.getBoolean("low_power", false)) {
+                    armPreStage();
+                } else {
+                    registerListeners();
+                }
+            }
+        });
+
         Log.d(getClass().getSimpleName(), "Watching your location"); // creepy
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_DUMP_JOURNAL.equals(intent.getAction())) {
+            if (locationSource == null) {
+                // don't start tracking if this is all we were started for
+                dumpStoredJournal(this);
+                stopSelf(startId);
+            } else {
+                dumpJournal();
+                dumpMetrics();
+            }
+
+            return START_NOT_STICKY;
+        }
+
+        if (intent != null && ACTION_RELOAD.equals(intent.getAction())) {
+            if (locationSource == null) {
+                // nothing running to reload, and nothing to start either
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
+
+            trackingHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    reload();
+                }
+            });
+
+            return START_STICKY;
+        }
+
+        if (intent != null && ACTION_PROXIMITY.equals(intent.getAction())) {
+            if (locationSource == null) {
+                // an alert left over from a session that's gone, don't let it start another
+                PendingIntent stale = PendingIntent.getService(this, 0, new Intent(this,
+                        LocationService.class).setAction(ACTION_PROXIMITY),
+                        PendingIntent.FLAG_NO_CREATE);
+                if (stale != null) {
+                    new SystemLocationSource(this).removeProximityAlert(stale);
+                    stale.cancel();
+                }
+
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
+
+            if (intent.getBooleanExtra(LocationManager.KEY_PROXIMITY_ENTERING, false)) {
+                trackingHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        escalate();
+                    }
+                });
+            }
+
+            return START_STICKY;
+        }
+
+        if (locationSource == null) {
+            startTracking(intent);
+        }
+
+        return START_STICKY;
+    }
+
     @Override
     public void onDestroy() {
+        if (locationSource == null) {
+            // only ever asked for a dump, there's no tracking to tear down
+            super.onDestroy();
+            return;
+        }
+
         LocationService.isRunning = false;
-        locationManager.removeUpdates(locationListener);
+
+        locationSource.removeUpdates(locationListener);
+        locationSource.removeProximityAlert(proximityIntent);
+
+        mainHandler.removeCallbacks(notificationUpdater);
+        mainHandler.removeCallbacks(arrivalAlert);
+        runningNotification.cancel();
+        arrivalPipeline.shutdown();
+
+        Log.d(getClass().getSimpleName(), "Running notification posted "
+                + runningNotification.getPostedCount() + " times, suppressed "
+                + runningNotification.getSuppressedCount());
+
+        dumpMetrics();
+
+        // let the tracking thread finish the fix it's on before closing the journal under it. The
+        // scheduler and state machine are only touched from that thread, so log them there too.
+        trackingHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                Log.d(LocationService.class.getSimpleName(), "Handled "
+                        + samplingScheduler.getFixesHandled() + " fixes, interval changes: "
+                        + samplingScheduler.getChanges());
+                Log.d(LocationService.class.getSimpleName(), "GPS wanted for "
+                        + trackingState.getGpsTime(fix.getTime()) / 1000 + "s of "
+                        + trackingState.getTrackingTime(fix.getTime()) / 1000 + "s, "
+                        + trackingState.getTransitionCount() + " transitions: "
+                        + trackingState.getTransitions());
+
+                if (journal != null) {
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        Log.w(LocationService.class.getSimpleName(),
+                                "Unable to close the fix journal", e);
+                    }
+                }
+
+                trackingThread.quit();
+            }
+        });
 
         LocationNotifier.sUpdateStartGo();
         stopForeground(true);
@@ -129,117 +400,376 @@ public class LocationService extends Service {
         return LocationService.isRunning;
     }
 
-    private void updateLocation(Location location) {
-        if (LocationHelper.isBetterLocation(location, bestLocation)) {
-            bestLocation = location;
+    private void loadDestination() {
+        int lat = preferences.getInt("dest_lat", 0);
+        int lng = preferences.getInt("dest_lng", 0);
+
+        float radius = preferences.getFloat("dest_radius", 0);
+
+        int filter = preferences.getBoolean("smooth_location", false) ? Geofence.FILTER_SMOOTHED
+                : Geofence.FILTER_NONE;
+
+        float confidence = Float.parseFloat(preferences.getString("entry_confidence", "0"));
 
-            float distance = location.distanceTo(destination);
-            updateRunningNotification(distance);
+        // replaces the existing destination since the id is the same
+        destination = new Geofence(0, lat, lng, radius, filter, confidence);
+        geofences.add(destination);
+
+        etaAlert = Long.parseLong(preferences.getString("eta_minutes", "0")) * 60;
+    }
+
+    /**
+     * Picks up new settings from ShowMap while keeping the current best fix and, unless the GPS
+     * setting changed, the existing provider registrations. Runs on the tracking thread.
+     */
+    private void reload() {
+        if (arrived) {
+            return;
+        }
 
-            if (distance <= radius) {
-                approachingDestination();
+        Log.d(getClass().getSimpleName(), "Reloading destination");
+
+        loadDestination();
+
+        if (preStage) {
+            if (preferences.getBoolean("low_power", false)) {
+                // move the ring to the new destination
+                armPreStage();
+            } else {
+                escalate();
             }
+        } else if (preferences.getBoolean("use_gps", false) != gpsEnabled) {
+            registerListeners();
+        }
+
+        int result = triggerEvaluator.reevaluate();
+        if (result == TriggerEvaluator.RESULT_REJECTED) {
+            // no fix yet
+            return;
+        }
+
+        Fix bestFix = triggerEvaluator.getBestFix();
+        postRunningNotification(GeoMath.distance(bestFix, destination), bestFix);
+
+        if (result == TriggerEvaluator.RESULT_TRIGGERED) {
+            arrive(System.nanoTime());
         }
     }
 
-    private void approachingDestination() {
-        Log.d(getClass().getSimpleName(), "Within distance to destination");
+    /**
+     * Hands the outer ring to a platform proximity alert and stops listening until it's entered.
+     * Runs on the tracking thread.
+     */
+    private void armPreStage() {
+        preStage = true;
+
+        float radius = TrackingStateMachine.getPreStageRadius(destination.getRadius());
 
-        locationManager.removeUpdates(locationListener);
+        locationSource.removeUpdates(locationListener);
+        locationSource.addProximityAlert(GeoMath.fromE6(destination.getLatitudeE6()),
+                GeoMath.fromE6(destination.getLongitudeE6()), radius, -1, proximityIntent);
 
-        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(), 0);
+        Log.d(getClass().getSimpleName(), "Waiting to come within " + radius + "m");
+    }
+
+    /**
+     * Leaves the pre-stage for the regular listeners. Runs on the tracking thread.
+     */
+    private void escalate() {
+        if (!preStage || arrived) {
+            return;
+        }
 
-        String notifTitle = getString(R.string.notification_alert_title);
-        String notifText = getString(R.string.notification_alert_text);
+        preStage = false;
+        locationSource.removeProximityAlert(proximityIntent);
 
-        runningNotification = null;
+        Log.d(getClass().getSimpleName(), "Entered the outer ring, tracking");
+
+        registerListeners();
+    }
 
-        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this);
-        notificationBuilder.setSmallIcon(R.drawable.notification_alert).setContentTitle(notifTitle)
-                .setContentText(notifText).setContentIntent(contentIntent).setAutoCancel(true);
+    private void registerListeners() {
+        long minTime = samplingScheduler.getMinTime();
+        float minDistance = samplingScheduler.getMinDistance();
 
-        String tone = preferences.getString("tone", null);
-        Uri toneUri = (tone == null) ? RingtoneManager
-                .getDefaultUri(RingtoneManager.TYPE_NOTIFICATION) : Uri.parse(tone);
+        Looper looper = trackingThread.getLooper();
 
-        notificationBuilder.setSound(toneUri);
+        locationSource.removeUpdates(locationListener);
+        locationSource.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, minTime,
+                minDistance, locationListener, looper);
 
-        if (preferences.getBoolean("vibrate", false)) {
-            int shortVib = 150;
-            int shortPause = 150;
+        // free fixes whenever another app has a radio up
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO) {
+            locationSource.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, minTime,
+                    minDistance, locationListener, looper);
+        }
 
-            // vibrate 3 short times
-            long[] pattern = { 0, shortVib, shortPause, shortVib, shortPause, shortVib, };
+        gpsEnabled = preferences.getBoolean("use_gps", false);
+        if (gpsEnabled && trackingState.isGpsWanted()) {
+            locationSource.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTime,
+                    minDistance, locationListener, looper);
+        }
+    }
 
-            notificationBuilder.setVibrate(pattern);
+    /**
+     * Runs on the tracking thread
+     * 
+     * @param received
+     *            System.nanoTime() when the listener got the location
+     */
+    private void updateLocation(Location location, long received) {
+        if (arrived) {
+            return;
         }
 
-        notificationBuilder.setLights(0xffff0000, 500, 500);
+        LocationHelper.toFix(location, fix);
 
-        Notification notification = notificationBuilder.getNotification();
-        if (preferences.getBoolean("insistent", false)) {
-            notification.flags |= Notification.FLAG_INSISTENT;
+        // a replayed fix carries trace time, not wall time
+        if (locationSource instanceof SystemLocationSource) {
+            long age = System.currentTimeMillis() - location.getTime();
+            if (age >= 0) {
+                metrics.recordLatency(PipelineMetrics.STAGE_RECEIPT, fix.getProvider(),
+                        fix.getAccuracy(), age * 1000000);
+            }
         }
 
-        notificationManager.notify(0, notification);
+        long filterStart = System.nanoTime();
+        int result = triggerEvaluator.evaluate(fix);
 
-        // send sms
-        if (preferences.getBoolean("sms_enabled", false)) {
-            String number = preferences.getString("sms_contact", null);
-            String message = preferences.getString("sms_message", null);
+        metrics.recordLatency(PipelineMetrics.STAGE_FILTER, fix.getProvider(), fix.getAccuracy(),
+                System.nanoTime() - filterStart);
+        metrics.recordFix(fix.getProvider(), fix.getAccuracy(), result);
 
-            if (number != null && message != null) {
-                SmsManager smsManager = SmsManager.getDefault();
-                smsManager.sendTextMessage(number, null, message, null, null);
+        if (journal != null) {
+            journal.append(fix, result);
+        }
+
+        Geofence nearest = geofences.findNearest(fix);
+
+        // the ring search only reaches so far, past it measure to the destination directly so the
+        // ETA alert and the sampling interval still know how far away it is
+        if (nearest == null) {
+            nearest = destination;
+        }
+
+        float distanceToEdge = Math.max(GeoMath.distance(fix, nearest) - nearest.getRadius(), 0);
+        float radius = nearest.getRadius();
+
+        if (result == TriggerEvaluator.RESULT_REJECTED) {
+            // it lost out to the best fix, but still says roughly where the user is
+            if (trackingState.update(fix.getTime(), distanceToEdge, radius, fix.getAccuracy(),
+                    EtaEstimator.UNKNOWN)) {
+                Log.d(getClass().getSimpleName(), trackingState.getLastTransition());
+                registerListeners();
             }
+
+            return;
         }
 
-        stopSelf();
-    }
+        float distance = GeoMath.distance(fix, destination);
+        postRunningNotification(distance, fix);
+
+        etaEstimator.update(fix);
+
+        if (result == TriggerEvaluator.RESULT_TRIGGERED) {
+            if (locationSource instanceof ReplayLocationSource) {
+                Log.d(getClass().getSimpleName(), "Replay triggered at trace time "
+                        + fix.getTime() + " after "
+                        + ((ReplayLocationSource) locationSource).getFixesDelivered() + " fixes");
+            }
+
+            arrive(received);
+            return;
+        }
+
+        long eta = etaEstimator.getEta(fix, nearest);
+
+        if (etaAlert > 0 && eta != EtaEstimator.UNKNOWN && eta <= etaAlert) {
+            Log.d(getClass().getSimpleName(), "Predicted arrival in " + eta + "s");
+            arrive(received);
+            return;
+        }
+
+        boolean reregister = false;
+
+        if (samplingScheduler.update(distanceToEdge, eta, etaEstimator.getSpeed())) {
+            Log.d(getClass().getSimpleName(), samplingScheduler.getLastChange());
+            reregister = true;
+        }
+
+        if (trackingState.update(fix.getTime(), distanceToEdge, radius, fix.getAccuracy(), eta)) {
+            Log.d(getClass().getSimpleName(), trackingState.getLastTransition());
+            reregister = true;
+        }
 
-    private void updateRunningNotification() {
-        updateRunningNotification(-1);
+        if (reregister) {
+            registerListeners();
+        }
     }
 
-    @TargetApi(16)
-    private void updateRunningNotification(float distance) {
-        String message;
-        if (distance == -1) {
-            message = getString(R.string.notification_awaiting);
-        } else {
-            boolean imperial = preferences.getBoolean("imperial", false);
-            int distanceStrId = imperial ? R.string.distance_feet : R.string.distance_metres;
-            long displayDistance = imperial ? Math.round(distance * 3.2808399) : Math
-                    .round(distance);
+    /**
+     * Opens the journal kept across tracking sessions. Runs on the tracking thread.
+     */
+    private void openJournal() {
+        try {
+            journal = new FixJournal(new File(getFilesDir(), JOURNAL_FILE), JOURNAL_CAPACITY);
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to open the fix journal", e);
+        }
+    }
 
-            message = getString(R.string.notification_tracking,
-                    getString(distanceStrId, displayDistance));
+    private void dumpJournal() {
+        final FixJournal dumpJournal = journal;
+        if (dumpJournal == null) {
+            return;
         }
 
-        String title = getString(R.string.app_name);
+        final File dumpFile = new File(getFilesDir(), JOURNAL_DUMP_FILE);
 
-        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this,
-                LocationNotifier.class), 0);
+        new Thread(new Runnable() {
 
-        if (runningNotification == null) {
-            runningNotification = new NotificationCompat.Builder(this)
-                    .setSmallIcon(R.drawable.notification_running).setContentTitle(title)
-                    .setContentText(message).setContentIntent(contentIntent).setOnlyAlertOnce(true)
-                    .getNotification();
-            
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                if (preferences.getString("notification_priority", "low").equals("low")) {
-                    runningNotification.priority = Notification.PRIORITY_MIN;
-                } else {
-                    runningNotification.priority = Notification.PRIORITY_HIGH;
+            @Override
+            public void run() {
+                writeJournal(dumpJournal, dumpFile);
+            }
+        }).start();
+    }
+
+    /**
+     * Writes out the journal the last tracking session left behind without starting the service.
+     * The journal is opened, written and closed on a background thread.
+     */
+    static void dumpStoredJournal(Context context) {
+        final File journalFile = new File(context.getFilesDir(), JOURNAL_FILE);
+        final File dumpFile = new File(context.getFilesDir(), JOURNAL_DUMP_FILE);
+
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!journalFile.exists()) {
+                    Log.d(LocationService.class.getSimpleName(), "No fix journal to write");
+                    return;
+                }
+
+                try {
+                    FixJournal storedJournal = new FixJournal(journalFile, JOURNAL_CAPACITY);
+                    try {
+                        writeJournal(storedJournal, dumpFile);
+                    } finally {
+                        storedJournal.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(LocationService.class.getSimpleName(), "Unable to open the fix journal",
+                            e);
                 }
             }
+        }).start();
+    }
 
-            startForeground(R.string.app_name, runningNotification);
-        } else {
-            // TODO: Figure out how to do this without using the deprecated setLatestEventInfo
-            runningNotification.setLatestEventInfo(this, title, message, contentIntent);
-            notificationManager.notify(R.string.app_name, runningNotification);
+    private static void writeJournal(FixJournal journal, File dumpFile) {
+        try {
+            FileWriter writer = new FileWriter(dumpFile);
+            try {
+                journal.dump(writer);
+            } finally {
+                writer.close();
+            }
+
+            Log.d(LocationService.class.getSimpleName(), "Fix journal written to " + dumpFile);
+        } catch (IOException e) {
+            Log.w(LocationService.class.getSimpleName(), "Unable to write the fix journal", e);
         }
     }
+
+    private void dumpMetrics() {
+        final File dumpFile = new File(getFilesDir(), METRICS_FILE);
+
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    FileWriter writer = new FileWriter(dumpFile);
+                    try {
+                        metrics.write(writer);
+                        LocationHelper.getGeocodeCache(LocationService.this).writeStats(writer);
+                    } finally {
+                        writer.close();
+                    }
+
+                    Log.d(LocationService.class.getSimpleName(), "Metrics written to " + dumpFile);
+                } catch (IOException e) {
+                    Log.w(LocationService.class.getSimpleName(), "Unable to write the metrics", e);
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Stops tracking and hands the alert to the main thread. Runs on the tracking thread.
+     * 
+     * @param received
+     *            System.nanoTime() when the fix that triggered came in
+     */
+    private void arrive(long received) {
+        arrived = true;
+        triggerReceivedAt = received;
+        arrivalFix.set(triggerEvaluator.getBestFix());
+        locationSource.removeUpdates(locationListener);
+
+        mainHandler.removeCallbacks(notificationUpdater);
+        mainHandler.post(arrivalAlert);
+    }
+
+    private void postRunningNotification(float distance, Fix from) {
+        notificationDistance = distance;
+        notificationProvider = from.getProvider();
+        notificationAccuracy = from.getAccuracy();
+        notificationPostedAt = System.nanoTime();
+
+        // only keep one update queued, it always shows the latest distance
+        mainHandler.removeCallbacks(notificationUpdater);
+        mainHandler.post(notificationUpdater);
+    }
+
+    private void approachingDestination() {
+        Log.d(getClass().getSimpleName(), "Within distance to destination");
+
+        runningNotification.cancel();
+
+        arrivalPipeline.run(arrivalFix, destination, new ArrivalPipeline.Listener() {
+
+            @Override
+            public void onActionDone(ArrivalAction action) {
+                if (action != notificationAction) {
+                    return;
+                }
+
+                // the user has been told, the slower actions don't count toward the alert and
+                // don't need the running notification
+                metrics.recordLatency(PipelineMetrics.STAGE_ALERT, arrivalFix.getProvider(),
+                        arrivalFix.getAccuracy(), System.nanoTime() - triggerReceivedAt);
+
+                mainHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        stopForeground(true);
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished() {
+                mainHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        stopSelf();
+                    }
+                });
+            }
+        });
+    }
 }
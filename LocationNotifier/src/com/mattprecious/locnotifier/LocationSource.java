@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.app.PendingIntent;
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * The parts of LocationManager the app uses, so fixes can come from a recorded trace instead of
+ * the radios.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public interface LocationSource {
+
+    /**
+     * @param looper
+     *            The looper to deliver fixes on, or null for the calling thread's looper
+     */
+    public void requestLocationUpdates(String provider, long minTime, float minDistance,
+            LocationListener listener, Looper looper);
+
+    public void removeUpdates(LocationListener listener);
+
+    public Location getLastKnownLocation(String provider);
+
+    /**
+     * @param expiration
+     *            Milliseconds until the alert is dropped, or -1 to keep it until it's removed
+     * @param intent
+     *            Sent with {@link android.location.LocationManager#KEY_PROXIMITY_ENTERING} each
+     *            time the ring is entered or left
+     */
+    public void addProximityAlert(double latitude, double longitude, float radius,
+            long expiration, PendingIntent intent);
+
+    public void removeProximityAlert(PendingIntent intent);
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.List;
+
+import android.graphics.Rect;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+import com.mattprecious.locnotifier.RadiusOverlay.PointType;
+
+import de.android1.overlaymanager.ManagedOverlay;
+
+/**
+ * The overlays drawn on the map: the user's location with its accuracy, and the destination with
+ * its radius. Each overlay is created the first time it's needed and changed in place after
+ * that. Only the screen area an overlay covered before and after a change is invalidated, so a
+ * location fix costs the same however often they arrive.
+ * 
+ * Overlays are inserted into the map's list in drawing order, ahead of the gesture overlays the
+ * {@link de.android1.overlaymanager.OverlayManager} keeps at the end, so the list never needs to
+ * be rebuilt.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class MapOverlayModel {
+    private final MapView mapView;
+
+    private RadiusOverlay locationRadius;
+    private PointOverlay locationPoint;
+    private RadiusOverlay destinationRadius;
+    private PointOverlay destinationPoint;
+
+    private final Rect dirty = new Rect();
+    private final Rect bounds = new Rect();
+
+    public MapOverlayModel(MapView mapView) {
+        this.mapView = mapView;
+    }
+
+    /**
+     * Moves the location overlays, adding them the first time
+     * 
+     * @param accuracy
+     *            Radius of the accuracy circle in meters
+     */
+    public void setLocation(GeoPoint point, float accuracy) {
+        dirty.setEmpty();
+
+        if (locationPoint == null) {
+            locationRadius = new RadiusOverlay(point, accuracy, PointType.LOCATION);
+            locationPoint = new PointOverlay(point, PointType.LOCATION);
+
+            insert(locationRadius);
+            insert(locationPoint);
+        } else {
+            if (isSame(locationPoint.getPoint(), point) && locationRadius.getMeters() == accuracy) {
+                return;
+            }
+
+            addBounds(locationRadius);
+            addBounds(locationPoint);
+
+            locationRadius.setPoint(point);
+            locationRadius.setMeters(accuracy);
+            locationPoint.setPoint(point);
+        }
+
+        addBounds(locationRadius);
+        addBounds(locationPoint);
+        invalidate();
+    }
+
+    /**
+     * Moves the destination overlays, adding them the first time
+     * 
+     * @param meters
+     *            Radius of the destination in meters
+     */
+    public void setDestination(GeoPoint point, float meters) {
+        dirty.setEmpty();
+
+        if (destinationPoint == null) {
+            destinationRadius = new RadiusOverlay(point, meters, PointType.DESTINATION);
+            destinationPoint = new PointOverlay(point, PointType.DESTINATION);
+
+            insert(destinationRadius);
+            insert(destinationPoint);
+        } else {
+            if (isSame(destinationPoint.getPoint(), point)
+                    && destinationRadius.getMeters() == meters) {
+                return;
+            }
+
+            addBounds(destinationRadius);
+            addBounds(destinationPoint);
+
+            destinationRadius.setPoint(point);
+            destinationRadius.setMeters(meters);
+            destinationPoint.setPoint(point);
+        }
+
+        addBounds(destinationRadius);
+        addBounds(destinationPoint);
+        invalidate();
+    }
+
+    /**
+     * @return the destination, or null if none has been set
+     */
+    public GeoPoint getDestination() {
+        return destinationPoint == null ? null : destinationPoint.getPoint();
+    }
+
+    /**
+     * @return the destination's radius overlay, or null if no destination has been set
+     */
+    public RadiusOverlay getDestinationRadius() {
+        return destinationRadius;
+    }
+
+    /**
+     * Adds an overlay after ours that draw below it and before the managed overlays
+     */
+    private void insert(Overlay overlay) {
+        List<Overlay> overlays = mapView.getOverlays();
+
+        int index = 0;
+        while (index < overlays.size() && !(overlays.get(index) instanceof ManagedOverlay)
+                && getOrder(overlays.get(index)) < getOrder(overlay)) {
+            index++;
+        }
+
+        overlays.add(index, overlay);
+    }
+
+    /**
+     * @return where an overlay draws, bottom first
+     */
+    private int getOrder(Overlay overlay) {
+        if (overlay == locationRadius) {
+            return 0;
+        } else if (overlay == locationPoint) {
+            return 1;
+        } else if (overlay == destinationRadius) {
+            return 2;
+        } else if (overlay == destinationPoint) {
+            return 3;
+        }
+
+        return Integer.MAX_VALUE;
+    }
+
+    private void addBounds(RadiusOverlay overlay) {
+        overlay.getBounds(mapView, bounds);
+        dirty.union(bounds);
+    }
+
+    private void addBounds(PointOverlay overlay) {
+        overlay.getBounds(mapView, bounds);
+        dirty.union(bounds);
+    }
+
+    private void invalidate() {
+        if (!dirty.isEmpty()) {
+            mapView.invalidate(dirty);
+        }
+    }
+
+    private static boolean isSame(GeoPoint a, GeoPoint b) {
+        return a.getLatitudeE6() == b.getLatitudeE6() && a.getLongitudeE6() == b.getLongitudeE6();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.Geofence;
+
+/**
+ * The arrival notification, with the tone, vibration and insistence from the preferences
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class NotificationAction implements ArrivalAction {
+    private static final long TIMEOUT = 5000;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final NotificationManager notificationManager;
+
+    public NotificationAction(Context context, SharedPreferences preferences) {
+        this.context = context;
+        this.preferences = preferences;
+
+        notificationManager = (NotificationManager) context
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @Override
+    public String getName() {
+        return "notification";
+    }
+
+    @Override
+    public long getTimeout() {
+        return TIMEOUT;
+    }
+
+    @Override
+    public void run(Fix fix, Geofence destination) {
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, new Intent(), 0);
+
+        String notifTitle = context.getString(R.string.notification_alert_title);
+        String notifText = context.getString(R.string.notification_alert_text);
+
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context);
+        notificationBuilder.setSmallIcon(R.drawable.notification_alert).setContentTitle(notifTitle)
+                .setContentText(notifText).setContentIntent(contentIntent).setAutoCancel(true);
+
+        String tone = preferences.getString("tone", null);
+        Uri toneUri = (tone == null) ? RingtoneManager
+                .getDefaultUri(RingtoneManager.TYPE_NOTIFICATION) : Uri.parse(tone);
+
+        notificationBuilder.setSound(toneUri);
+
+        if (preferences.getBoolean("vibrate", false)) {
+            int shortVib = 150;
+            int shortPause = 150;
+
+            // vibrate 3 short times
+            long[] pattern = { 0, shortVib, shortPause, shortVib, shortPause, shortVib, };
+
+            notificationBuilder.setVibrate(pattern);
+        }
+
+        notificationBuilder.setLights(0xffff0000, 500, 500);
+
+        Notification notification = notificationBuilder.getNotification();
+        if (preferences.getBoolean("insistent", false)) {
+            notification.flags |= Notification.FLAG_INSISTENT;
+        }
+
+        notificationManager.notify(0, notification);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.graphics.Paint;
+import android.os.Debug;
+import android.util.Log;
+
+import com.mattprecious.locnotifier.RadiusOverlay.PointType;
+
+/**
+ * Paints shared by every map overlay, set up once per {@link PointType} so drawing a frame
+ * doesn't allocate. Overlays only draw on the main thread, so sharing them is safe.
+ * 
+ * Set {@link #COUNT_ALLOCATIONS} to log how many objects the overlays allocate per draw.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class OverlayPaints {
+    private static final String TAG = OverlayPaints.class.getSimpleName();
+
+    private static final boolean COUNT_ALLOCATIONS = false;
+    private static final int COUNT_LOG_INTERVAL = 500;
+
+    private static final Paint[] POINT_FILLS = new Paint[PointType.values().length];
+    private static final Paint[] POINT_STROKES = new Paint[PointType.values().length];
+    private static final Paint[] RADIUS_FILLS = new Paint[PointType.values().length];
+    private static final Paint[] RADIUS_STROKES = new Paint[PointType.values().length];
+
+    private static boolean counting;
+    private static long draws;
+    private static long allocations;
+
+    static {
+        int location = PointType.LOCATION.ordinal();
+        POINT_FILLS[location] = create(Paint.Style.FILL, 255, 16, 91, 99);
+        POINT_STROKES[location] = create(Paint.Style.STROKE, 255, 11, 66, 57);
+        RADIUS_FILLS[location] = create(Paint.Style.FILL, 75, 180, 232, 94);
+        RADIUS_STROKES[location] = create(Paint.Style.STROKE, 75, 11, 66, 57);
+
+        int destination = PointType.DESTINATION.ordinal();
+        POINT_FILLS[destination] = create(Paint.Style.FILL, 255, 189, 73, 50);
+        POINT_STROKES[destination] = create(Paint.Style.STROKE, 255, 146, 20, 12);
+        RADIUS_FILLS[destination] = create(Paint.Style.FILL, 75, 189, 73, 50);
+        RADIUS_STROKES[destination] = create(Paint.Style.STROKE, 150, 189, 73, 50);
+    }
+
+    public static Paint getPointFill(PointType type) {
+        return POINT_FILLS[type.ordinal()];
+    }
+
+    public static Paint getPointStroke(PointType type) {
+        return POINT_STROKES[type.ordinal()];
+    }
+
+    public static Paint getRadiusFill(PointType type) {
+        return RADIUS_FILLS[type.ordinal()];
+    }
+
+    public static Paint getRadiusStroke(PointType type) {
+        return RADIUS_STROKES[type.ordinal()];
+    }
+
+    /**
+     * Call at the start of an overlay's draw, pairs with {@link #endDraw()}
+     */
+    public static void beginDraw() {
+        if (!COUNT_ALLOCATIONS) {
+            return;
+        }
+
+        if (!counting) {
+            Debug.startAllocCounting();
+            counting = true;
+        }
+
+        Debug.resetThreadAllocCount();
+    }
+
+    public static void endDraw() {
+        if (!COUNT_ALLOCATIONS) {
+            return;
+        }
+
+        allocations += Debug.getThreadAllocCount();
+        draws++;
+
+        if (draws % COUNT_LOG_INTERVAL == 0) {
+            Log.d(TAG, draws + " draws, " + allocations + " allocations, "
+                    + ((float) allocations / draws) + " per draw");
+        }
+    }
+
+    private static Paint create(Paint.Style style, int a, int r, int g, int b) {
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setStyle(style);
+        paint.setARGB(a, r, g, b);
+
+        return paint;
+    }
+}
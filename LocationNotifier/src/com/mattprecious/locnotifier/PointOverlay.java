@@ -17,8 +17,8 @@
 package com.mattprecious.locnotifier;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.Rect;
 
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
@@ -27,10 +27,17 @@ import com.google.android.maps.Projection;
 import com.mattprecious.locnotifier.RadiusOverlay.PointType;
 
 public class PointOverlay extends Overlay {
+    private static final int RADIUS = 10;
+
+    // room around the dot for the antialiased stroke when invalidating
+    private static final int BOUNDS_MARGIN = 2;
 
     private GeoPoint geoPoint;
     private PointType type;
 
+    // scratch for draw() and getBounds(), both only run on the main thread
+    private final Point point = new Point();
+
     public PointOverlay(GeoPoint geoPoint, PointType type) {
         this.geoPoint = geoPoint;
         this.type = type;
@@ -40,33 +47,36 @@ public class PointOverlay extends Overlay {
         return geoPoint;
     }
 
+    /**
+     * Moves the point in place. The map still has to be invalidated.
+     */
+    public void setPoint(GeoPoint geoPoint) {
+        this.geoPoint = geoPoint;
+    }
+
+    /**
+     * Sets the rect to the screen area the point covers
+     */
+    public void getBounds(MapView mapView, Rect bounds) {
+        mapView.getProjection().toPixels(geoPoint, point);
+
+        int radius = RADIUS + BOUNDS_MARGIN;
+        bounds.set(point.x - radius, point.y - radius, point.x + radius, point.y + radius);
+    }
+
     @Override
     public void draw(Canvas canvas, MapView mapView, boolean shadow) {
         super.draw(canvas, mapView, shadow);
 
-        Projection projection = mapView.getProjection();
+        OverlayPaints.beginDraw();
 
-        Point point = new Point();
+        Projection projection = mapView.getProjection();
         projection.toPixels(geoPoint, point);
 
-        Paint fill = new Paint();
-        fill.setAntiAlias(true);
-        fill.setStyle(Paint.Style.FILL);
-
-        Paint stroke = new Paint();
-        stroke.setAntiAlias(true);
-        stroke.setStyle(Paint.Style.STROKE);
-
-        if (type == PointType.LOCATION) {
-            fill.setARGB(255, 16, 91, 99);
-            stroke.setARGB(255, 11, 66, 57);
-        } else {
-            fill.setARGB(255, 189, 73, 50);
-            stroke.setARGB(255, 146, 20, 12);
-        }
+        canvas.drawCircle(point.x, point.y, RADIUS, OverlayPaints.getPointFill(type));
+        canvas.drawCircle(point.x, point.y, RADIUS, OverlayPaints.getPointStroke(type));
 
-        canvas.drawCircle(point.x, point.y, 10, fill);
-        canvas.drawCircle(point.x, point.y, 10, stroke);
+        OverlayPaints.endDraw();
     }
 
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.support.v4.view.ViewCompat;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.SeekBar;
+
+import com.google.android.maps.MapView;
+
+/**
+ * Changes the destination radius, either by holding the distance bar off center or by dragging
+ * the edge of the circle. Runs on the main thread, once per frame while the bar is held off
+ * center, and changes the one radius overlay in place, invalidating only the area it covers.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class RadiusController implements Runnable, View.OnTouchListener {
+
+    public interface OnRadiusChangeListener {
+        public void onRadiusChanged(float meters);
+    }
+
+    // the distance bar has a size of 9, so 4 is the midpoint
+    private static final int CENTER = 4;
+
+    // the bar used to step every 100ms, rates below are per step
+    private static final float STEP_TIME = 100;
+
+    // how far from the edge of the circle a touch still grabs it
+    private static final float EDGE_SLOP_DIP = 24;
+
+    private final MapView mapView;
+    private final SeekBar distanceBar;
+    private final float minMeters;
+    private final float edgeSlop;
+    private final OnRadiusChangeListener listener;
+
+    private RadiusOverlay overlay;
+    private boolean enabled;
+
+    private boolean nudging;
+    private boolean scheduled;
+    private long lastFrame;
+
+    private boolean dragging;
+
+    private final Point center = new Point();
+    private final Rect dirty = new Rect();
+    private final Rect bounds = new Rect();
+
+    public RadiusController(MapView mapView, SeekBar distanceBar, float minMeters,
+            OnRadiusChangeListener listener) {
+        this.mapView = mapView;
+        this.distanceBar = distanceBar;
+        this.minMeters = minMeters;
+        this.listener = listener;
+
+        edgeSlop = EDGE_SLOP_DIP * mapView.getResources().getDisplayMetrics().density;
+    }
+
+    public void setOverlay(RadiusOverlay overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Whether the circle's edge can be dragged, only while the distance bar is showing so a
+     * pan that starts near the edge isn't taken for a resize
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+
+        if (!enabled) {
+            dragging = false;
+            stopNudging();
+        }
+    }
+
+    /**
+     * Called when the user grabs the distance bar
+     */
+    public void startNudging() {
+        nudging = true;
+        schedule();
+    }
+
+    /**
+     * Called when the user lets go of the distance bar
+     */
+    public void stopNudging() {
+        nudging = false;
+    }
+
+    /**
+     * Called when the distance bar moves, to start the frames again if it left the center
+     */
+    public void onProgressChanged() {
+        if (nudging) {
+            schedule();
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+
+        int offset = distanceBar.getProgress() - CENTER;
+        if (!nudging || offset == 0 || overlay == null) {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        float steps = (now - lastFrame) / STEP_TIME;
+        lastFrame = now;
+
+        // exponential in how far the bar is held off center
+        float modifier = (float) Math.pow(2, Math.abs(offset));
+        modifier = offset < 0 ? -modifier : modifier;
+
+        // zoom level increases as you zoom in, we want to flip this around so the more zoomed in
+        // you are, the less impact it has on the distance bar
+        int invertedZoom = mapView.getMaxZoomLevel() - mapView.getZoomLevel() + 1;
+        modifier *= Math.pow(2, invertedZoom - 3);
+
+        setMeters(overlay.getMeters() + modifier * steps);
+
+        scheduled = true;
+        ViewCompat.postOnAnimation(mapView, this);
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+        if (!enabled || overlay == null) {
+            return false;
+        }
+
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                float radius = overlay.getPixelRadius(mapView);
+                dragging = Math.abs(getTouchRadius(event) - radius) <= edgeSlop;
+                return dragging;
+            case MotionEvent.ACTION_MOVE:
+                if (dragging) {
+                    setMeters(getTouchRadius(event) / RadiusOverlay.getPixelsPerMeter(mapView));
+                }
+
+                return dragging;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean handled = dragging;
+                dragging = false;
+                return handled;
+            default:
+                return dragging;
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            lastFrame = SystemClock.uptimeMillis();
+            ViewCompat.postOnAnimation(mapView, this);
+        }
+    }
+
+    private float getTouchRadius(MotionEvent event) {
+        mapView.getProjection().toPixels(overlay.getPoint(), center);
+
+        float dx = event.getX() - center.x;
+        float dy = event.getY() - center.y;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void setMeters(float meters) {
+        overlay.getBounds(mapView, dirty);
+        overlay.setMeters(Math.max(meters, minMeters));
+        overlay.getBounds(mapView, bounds);
+        dirty.union(bounds);
+
+        ViewCompat.postInvalidateOnAnimation(mapView, dirty.left, dirty.top, dirty.right,
+                dirty.bottom);
+
+        listener.onRadiusChanged(overlay.getMeters());
+    }
+}
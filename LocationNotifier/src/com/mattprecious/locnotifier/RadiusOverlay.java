@@ -17,8 +17,8 @@
 package com.mattprecious.locnotifier;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.Point;
+import android.graphics.Rect;
 
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
@@ -26,11 +26,20 @@ import com.google.android.maps.Overlay;
 import com.google.android.maps.Projection;
 
 public class RadiusOverlay extends Overlay {
+    // room around the circle for the antialiased stroke when invalidating
+    private static final int BOUNDS_MARGIN = 2;
+
+    // equator pixels per meter by zoom level, 0 until first needed. Only depends on the zoom
+    // level, so it's shared by every overlay.
+    private static final float[] PIXELS_PER_METER = new float[32];
 
     private GeoPoint geoPoint;
     private float meters;
     private PointType type;
 
+    // scratch for draw() and getBounds(), both only run on the main thread
+    private final Point point = new Point();
+
     enum PointType {
         LOCATION, DESTINATION
     }
@@ -41,39 +50,74 @@ public class RadiusOverlay extends Overlay {
         this.type = type;
     }
 
+    public GeoPoint getPoint() {
+        return geoPoint;
+    }
+
+    /**
+     * Moves the circle in place. The map still has to be invalidated.
+     */
+    public void setPoint(GeoPoint geoPoint) {
+        this.geoPoint = geoPoint;
+    }
+
     public float getMeters() {
         return meters;
     }
 
+    /**
+     * Changes the radius in place. The map still has to be invalidated.
+     */
+    public void setMeters(float meters) {
+        this.meters = meters;
+    }
+
+    /**
+     * @return how many pixels a meter at the equator covers at the map's zoom level
+     */
+    public static float getPixelsPerMeter(MapView mapView) {
+        int zoom = mapView.getZoomLevel();
+        if (zoom < 0 || zoom >= PIXELS_PER_METER.length) {
+            return mapView.getProjection().metersToEquatorPixels(1000) / 1000;
+        }
+
+        if (PIXELS_PER_METER[zoom] == 0) {
+            // metersToEquatorPixels() is linear, a larger distance keeps the precision
+            PIXELS_PER_METER[zoom] = mapView.getProjection().metersToEquatorPixels(1000) / 1000;
+        }
+
+        return PIXELS_PER_METER[zoom];
+    }
+
+    public float getPixelRadius(MapView mapView) {
+        return meters * getPixelsPerMeter(mapView);
+    }
+
+    /**
+     * Sets the rect to the screen area the circle covers
+     */
+    public void getBounds(MapView mapView, Rect bounds) {
+        mapView.getProjection().toPixels(geoPoint, point);
+
+        int radius = (int) Math.ceil(getPixelRadius(mapView)) + BOUNDS_MARGIN;
+        bounds.set(point.x - radius, point.y - radius, point.x + radius, point.y + radius);
+    }
+
     @Override
     public void draw(Canvas canvas, MapView mapView, boolean shadow) {
         super.draw(canvas, mapView, shadow);
 
-        Projection projection = mapView.getProjection();
-
-        float radius = projection.metersToEquatorPixels(meters);
+        OverlayPaints.beginDraw();
 
-        Point point = new Point();
+        Projection projection = mapView.getProjection();
         projection.toPixels(geoPoint, point);
 
-        Paint fill = new Paint();
-        fill.setAntiAlias(true);
-        fill.setStyle(Paint.Style.FILL);
-
-        Paint stroke = new Paint();
-        stroke.setAntiAlias(true);
-        stroke.setStyle(Paint.Style.STROKE);
+        float radius = getPixelRadius(mapView);
 
-        if (type == PointType.LOCATION) {
-            fill.setARGB(75, 180, 232, 94);
-            stroke.setARGB(75, 11, 66, 57);
-        } else {
-            fill.setARGB(75, 189, 73, 50);
-            stroke.setARGB(150, 189, 73, 50);
-        }
+        canvas.drawCircle(point.x, point.y, radius, OverlayPaints.getRadiusFill(type));
+        canvas.drawCircle(point.x, point.y, radius, OverlayPaints.getRadiusStroke(type));
 
-        canvas.drawCircle(point.x, point.y, radius, fill);
-        canvas.drawCircle(point.x, point.y, radius, stroke);
+        OverlayPaints.endDraw();
     }
 
 }
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.GeoMath;
+import com.mattprecious.locnotifier.core.Trace;
+
+/**
+ * Stands in for LocationManager by playing back a {@link Trace}. Fixes are timed on the thread
+ * that created the source at the trace's own pace, sped up by a factor of up to
+ * {@link #MAX_SPEED}, and delivered on each registration's looper. Each registration only
+ * receives fixes from the provider it asked for, no more often than its minTime allows.
+ * 
+ * Proximity alerts are checked against every fix in the trace, whatever its provider, the way
+ * the platform uses whichever provider it likes for them. The replay starts with the first
+ * registration or proximity alert.
+ * 
+ * Only debuggable builds honour the replay extras. To replay a trace through the tracking
+ * service, stop tracking and send {@link DebugReceiver#ACTION_REPLAY} with
+ * {@link #EXTRA_REPLAY_TRACE} set to the path of a trace file the app can read:
+ * 
+ * <pre>
+ * adb shell am broadcast -a com.mattprecious.locnotifier.REPLAY \
+ *         -n com.mattprecious.locnotifier/.DebugReceiver \
+ *         --es replay_trace /sdcard/commute.trace --ef replay_speed 10
+ * </pre>
+ * 
+ * The map replays the same way when started with the extras:
+ * 
+ * <pre>
+ * adb shell am start -n com.mattprecious.locnotifier/.ShowMap \
+ *         --es replay_trace /sdcard/commute.trace
+ * </pre>
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class ReplayLocationSource implements LocationSource {
+    private static final String TAG = "ReplayLocationSource";
+
+    public static final String EXTRA_REPLAY_TRACE = "replay_trace";
+    public static final String EXTRA_REPLAY_SPEED = "replay_speed";
+
+    public static final float MAX_SPEED = 1000;
+
+    private final Context context;
+    private final Trace trace;
+    private final float speed;
+
+    private final Handler handler = new Handler();
+    private final List<Registration> registrations = new ArrayList<Registration>();
+    private final List<ProximityAlert> proximityAlerts = new ArrayList<ProximityAlert>();
+
+    private int index = 0;
+    private volatile int fixesDelivered = 0;
+    private long startUptime = -1;
+    private volatile Location lastLocation;
+
+    private final Runnable deliverNext = new Runnable() {
+
+        @Override
+        public void run() {
+            deliver(trace.get(index++));
+            scheduleNext();
+        }
+    };
+
+    public ReplayLocationSource(Context context, Trace trace, float speed) {
+        this.context = context.getApplicationContext();
+        this.trace = trace;
+        this.speed = Math.max(1, Math.min(speed, MAX_SPEED));
+    }
+
+    /**
+     * Creates a replay source from the intent's replay extras
+     * 
+     * @return the replay source, or null if the intent doesn't ask for one, this isn't a
+     *         debuggable build or the trace couldn't be read
+     */
+    public static ReplayLocationSource fromIntent(Context context, Intent intent) {
+        if (intent == null || !intent.hasExtra(EXTRA_REPLAY_TRACE)) {
+            return null;
+        }
+
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            Log.w(TAG, "Ignoring replay request in a release build");
+            return null;
+        }
+
+        String path = intent.getStringExtra(EXTRA_REPLAY_TRACE);
+        float speed = intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1);
+
+        try {
+            FileReader reader = new FileReader(path);
+            try {
+                return new ReplayLocationSource(context, Trace.read(reader), speed);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read trace " + path, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void requestLocationUpdates(String provider, long minTime, float minDistance,
+            final LocationListener listener, Looper looper) {
+        final Registration registration = new Registration(LocationHelper.getProviderId(provider),
+                minTime, listener, (looper == null) ? Looper.myLooper() : looper);
+
+        // registrations can come from any thread, the list is only touched on the replay handler
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                registrations.add(registration);
+                start();
+            }
+        });
+    }
+
+    @Override
+    public void removeUpdates(final LocationListener listener) {
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = registrations.size() - 1; i >= 0; i--) {
+                    if (registrations.get(i).listener == listener) {
+                        registrations.remove(i);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public Location getLastKnownLocation(String provider) {
+        return lastLocation;
+    }
+
+    @Override
+    public void addProximityAlert(double latitude, double longitude, float radius,
+            long expiration, PendingIntent intent) {
+        final ProximityAlert alert = new ProximityAlert(latitude, longitude, radius, expiration,
+                intent);
+
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                // like the platform, adding the same intent again replaces the old alert
+                removeProximityAlertNow(alert.intent);
+
+                proximityAlerts.add(alert);
+                start();
+            }
+        });
+    }
+
+    @Override
+    public void removeProximityAlert(final PendingIntent intent) {
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                removeProximityAlertNow(intent);
+            }
+        });
+    }
+
+    public int getFixesDelivered() {
+        return fixesDelivered;
+    }
+
+    public boolean isFinished() {
+        return index >= trace.size();
+    }
+
+    public Trace getTrace() {
+        return trace;
+    }
+
+    private void start() {
+        if (startUptime < 0) {
+            startUptime = SystemClock.uptimeMillis();
+            scheduleNext();
+        }
+    }
+
+    private void removeProximityAlertNow(PendingIntent intent) {
+        for (int i = proximityAlerts.size() - 1; i >= 0; i--) {
+            if (proximityAlerts.get(i).intent.equals(intent)) {
+                proximityAlerts.remove(i);
+            }
+        }
+    }
+
+    private void scheduleNext() {
+        if (isFinished()) {
+            Log.d(TAG, "Replay finished after " + fixesDelivered + " fixes");
+            return;
+        }
+
+        long traceOffset = trace.get(index).getTime() - trace.get(0).getTime();
+        handler.postAtTime(deliverNext, startUptime + (long) (traceOffset / speed));
+    }
+
+    private void deliver(Fix fix) {
+        checkProximityAlerts(fix);
+
+        Location location = null;
+
+        for (final Registration registration : registrations) {
+            if (registration.provider != fix.getProvider()) {
+                continue;
+            }
+
+            if (registration.lastTime >= 0
+                    && fix.getTime() - registration.lastTime < registration.minTime) {
+                continue;
+            }
+
+            if (location == null) {
+                location = LocationHelper.toLocation(fix);
+                lastLocation = location;
+                fixesDelivered++;
+            }
+
+            registration.lastTime = fix.getTime();
+
+            final Location delivered = location;
+            new Handler(registration.looper).post(new Runnable() {
+
+                @Override
+                public void run() {
+                    registration.listener.onLocationChanged(delivered);
+                }
+            });
+        }
+    }
+
+    private void checkProximityAlerts(Fix fix) {
+        for (int i = proximityAlerts.size() - 1; i >= 0; i--) {
+            ProximityAlert alert = proximityAlerts.get(i);
+
+            if (alert.expiration >= 0) {
+                if (alert.expiresAt < 0) {
+                    alert.expiresAt = fix.getTime() + alert.expiration;
+                } else if (fix.getTime() > alert.expiresAt) {
+                    proximityAlerts.remove(i);
+                    continue;
+                }
+            }
+
+            boolean inside = GeoMath.distance(fix.getLatitude(), fix.getLongitude(),
+                    alert.latitude, alert.longitude) <= alert.radius;
+
+            // starts outside, so the first fix only reports an entry, same as the platform
+            if (inside == alert.inside) {
+                continue;
+            }
+
+            alert.inside = inside;
+
+            Intent fillIn = new Intent();
+            fillIn.putExtra(LocationManager.KEY_PROXIMITY_ENTERING, inside);
+
+            try {
+                alert.intent.send(context, 0, fillIn);
+            } catch (PendingIntent.CanceledException e) {
+                Log.w(TAG, "Proximity alert intent was cancelled", e);
+                proximityAlerts.remove(i);
+            }
+        }
+    }
+
+    private static class ProximityAlert {
+        private final double latitude;
+        private final double longitude;
+        private final float radius;
+        private final long expiration;
+        private final PendingIntent intent;
+
+        private long expiresAt = -1;
+        private boolean inside = false;
+
+        public ProximityAlert(double latitude, double longitude, float radius, long expiration,
+                PendingIntent intent) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.expiration = expiration;
+            this.intent = intent;
+        }
+    }
+
+    private static class Registration {
+        private final int provider;
+        private final long minTime;
+        private final LocationListener listener;
+        private final Looper looper;
+
+        private long lastTime = -1;
+
+        public Registration(int provider, long minTime, LocationListener listener, Looper looper) {
+            this.provider = provider;
+            this.minTime = minTime;
+            this.listener = listener;
+            this.looper = looper;
+        }
+    }
+}
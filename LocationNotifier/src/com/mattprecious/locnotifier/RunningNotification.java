@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+
+/**
+ * The ongoing "x until destination" notification. Distances are rounded to what's actually shown
+ * before anything is built, so a new notification is only posted when the visible text changes,
+ * and never more often than the given interval. Must be used from the main thread.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class RunningNotification {
+    private static final double FEET_PER_METER = 3.2808399;
+
+    private final Service service;
+    private final SharedPreferences preferences;
+    private final NotificationManager notificationManager;
+    private final long minInterval;
+
+    private final Handler handler = new Handler();
+    private final NotificationCompat.Builder builder;
+    private final String title;
+
+    private boolean started = false;
+
+    private long shownDistance = Long.MIN_VALUE;
+    private boolean shownImperial;
+
+    private long pendingDistance;
+    private boolean pendingImperial;
+    private boolean pending = false;
+
+    private long lastPostTime = 0;
+
+    private int posted = 0;
+    private int suppressed = 0;
+
+    private final Runnable deferredPost = new Runnable() {
+
+        @Override
+        public void run() {
+            if (pending) {
+                post(pendingDistance, pendingImperial);
+            }
+        }
+    };
+
+    /**
+     * @param minInterval
+     *            Minimum time in milliseconds between posted updates
+     */
+    public RunningNotification(Service service, SharedPreferences preferences, long minInterval) {
+        this.service = service;
+        this.preferences = preferences;
+        this.minInterval = minInterval;
+
+        notificationManager = (NotificationManager) service.getApplicationContext()
+                .getSystemService(Context.NOTIFICATION_SERVICE);
+
+        title = service.getString(R.string.app_name);
+
+        PendingIntent contentIntent = PendingIntent.getActivity(service, 0, new Intent(service,
+                LocationNotifier.class), 0);
+
+        builder = new NotificationCompat.Builder(service)
+                .setSmallIcon(R.drawable.notification_running).setContentTitle(title)
+                .setContentIntent(contentIntent).setOnlyAlertOnce(true);
+    }
+
+    /**
+     * Puts the service in the foreground with the "awaiting location" text
+     */
+    public void start() {
+        builder.setContentText(service.getString(R.string.notification_awaiting));
+
+        service.startForeground(R.string.app_name, build());
+        started = true;
+        posted++;
+        lastPostTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Shows a new distance to the destination, if it would look any different
+     * 
+     * @param distance
+     *            Distance in meters
+     */
+    public void update(float distance) {
+        boolean imperial = preferences.getBoolean("imperial", false);
+        long displayDistance = imperial ? Math.round(distance * FEET_PER_METER) : Math
+                .round(distance);
+
+        if (pending) {
+            // an update is already waiting, it'll show this value instead
+            suppressed++;
+        } else if (displayDistance == shownDistance && imperial == shownImperial) {
+            suppressed++;
+            return;
+        }
+
+        long wait = lastPostTime + minInterval - SystemClock.uptimeMillis();
+        if (wait <= 0 && !pending) {
+            post(displayDistance, imperial);
+            return;
+        }
+
+        pendingDistance = displayDistance;
+        pendingImperial = imperial;
+
+        if (!pending) {
+            pending = true;
+            handler.postDelayed(deferredPost, wait);
+        }
+    }
+
+    /**
+     * Drops any pending update. The notification itself goes away with stopForeground.
+     */
+    public void cancel() {
+        handler.removeCallbacks(deferredPost);
+        pending = false;
+    }
+
+    public int getPostedCount() {
+        return posted;
+    }
+
+    public int getSuppressedCount() {
+        return suppressed;
+    }
+
+    private void post(long displayDistance, boolean imperial) {
+        pending = false;
+
+        if (displayDistance == shownDistance && imperial == shownImperial) {
+            // went back to what's already showing while we were waiting
+            return;
+        }
+
+        int distanceStrId = imperial ? R.string.distance_feet : R.string.distance_metres;
+        builder.setContentText(service.getString(R.string.notification_tracking,
+                service.getString(distanceStrId, displayDistance)));
+
+        if (started) {
+            notificationManager.notify(R.string.app_name, build());
+        } else {
+            service.startForeground(R.string.app_name, build());
+            started = true;
+        }
+
+        shownDistance = displayDistance;
+        shownImperial = imperial;
+        lastPostTime = SystemClock.uptimeMillis();
+        posted++;
+    }
+
+    @TargetApi(16)
+    private Notification build() {
+        Notification notification = builder.getNotification();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (preferences.getString("notification_priority", "low").equals("low")) {
+                notification.priority = Notification.PRIORITY_MIN;
+            } else {
+                notification.priority = Notification.PRIORITY_HIGH;
+            }
+        }
+
+        return notification;
+    }
+}
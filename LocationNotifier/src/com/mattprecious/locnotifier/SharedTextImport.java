@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.Context;
+import android.location.Address;
+
+import com.google.android.maps.GeoPoint;
+import com.mattprecious.locnotifier.core.GeoMath;
+
+/**
+ * Turns text shared from another app into destination candidates. Every line is tried, not just
+ * the first: a line holding coordinates is used as is, anything else goes to the geocoder.
+ * Candidates are ranked so coordinates beat addresses, specific addresses beat vague ones, and
+ * earlier lines and results beat later ones. Geocoding blocks, so only use it off the main
+ * thread.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SharedTextImport {
+    // geocoder round trips are slow, a share rarely has more than a few useful lines
+    private static final int MAX_LINES = 5;
+
+    private static final Pattern COORDINATES = Pattern
+            .compile("(-?\\d{1,2}\\.\\d+)\\s*,\\s*(-?\\d{1,3}\\.\\d+)");
+    private static final Pattern URL = Pattern.compile("^[a-z]+://\\S*$",
+            Pattern.CASE_INSENSITIVE);
+
+    public interface Cancellable {
+        public boolean isCancelled();
+    }
+
+    public static class Candidate {
+        public final GeoPoint point;
+        public final String label;
+        public final int score;
+
+        public Candidate(GeoPoint point, String label, int score) {
+            this.point = point;
+            this.label = label;
+            this.score = score;
+        }
+    }
+
+    private SharedTextImport() {
+    }
+
+    /**
+     * @return the trimmed, non-empty, distinct lines of the text in order
+     */
+    public static List<String> parseLines(String text) {
+        Set<String> lines = new LinkedHashSet<String>();
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (line.length() > 0) {
+                lines.add(line);
+            }
+        }
+
+        return new ArrayList<String>(lines);
+    }
+
+    /**
+     * @param cancellable
+     *            Checked between geocoder calls, may be null
+     * @return every candidate found, best first
+     */
+    public static List<Candidate> findCandidates(Context context, String text,
+            Cancellable cancellable) {
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        List<String> lines = parseLines(text);
+
+        int geocoded = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (cancellable != null && cancellable.isCancelled()) {
+                break;
+            }
+
+            String line = lines.get(i);
+
+            // links like maps.google.com/?q=43.6,-79.4 carry coordinates too
+            Matcher matcher = COORDINATES.matcher(line);
+            if (matcher.find()) {
+                double lat = Double.parseDouble(matcher.group(1));
+                double lng = Double.parseDouble(matcher.group(2));
+
+                if (Math.abs(lat) <= 90 && Math.abs(lng) <= 180) {
+                    candidates.add(new Candidate(new GeoPoint(GeoMath.toE6(lat),
+                            GeoMath.toE6(lng)), line, 100 - i));
+                    continue;
+                }
+            }
+
+            if (URL.matcher(line).matches() || geocoded == MAX_LINES) {
+                continue;
+            }
+
+            geocoded++;
+
+            List<Address> addresses = LocationHelper.stringToAddresses(context, line);
+            if (addresses == null) {
+                continue;
+            }
+
+            for (int j = 0; j < addresses.size(); j++) {
+                Address address = addresses.get(j);
+                if (!address.hasLatitude() || !address.hasLongitude()) {
+                    continue;
+                }
+
+                candidates.add(new Candidate(LocationHelper.addressToPoint(address),
+                        LocationHelper.addressToString(address), score(address, i, j,
+                                addresses.size())));
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+
+            @Override
+            public int compare(Candidate lhs, Candidate rhs) {
+                return rhs.score - lhs.score;
+            }
+        });
+
+        return candidates;
+    }
+
+    private static int score(Address address, int line, int result, int results) {
+        int score = 50;
+
+        if (address.getThoroughfare() != null) {
+            score += 20;
+        }
+
+        if (address.getLocality() != null) {
+            score += 10;
+        }
+
+        if (address.getPostalCode() != null) {
+            score += 5;
+        }
+
+        // a line matching many places is vague, and the geocoder puts its best guess first
+        score -= Math.min(results - 1, 10);
+        score -= 2 * result;
+        score -= 3 * line;
+
+        return score;
+    }
+}
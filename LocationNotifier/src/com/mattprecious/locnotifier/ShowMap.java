@@ -16,18 +16,21 @@
 
 package com.mattprecious.locnotifier;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import android.annotation.TargetApi;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ProgressDialog;
+import android.app.SearchManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.database.MatrixCursor;
 import android.location.Address;
 import android.location.Location;
 import android.location.LocationListener;
@@ -35,8 +38,10 @@ import android.location.LocationManager;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -44,8 +49,10 @@ import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.SearchView;
 import android.widget.SearchView.OnQueryTextListener;
+import android.widget.SearchView.OnSuggestionListener;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.SimpleCursorAdapter;
 import android.widget.Toast;
 
 import com.actionbarsherlock.app.SherlockMapActivity;
@@ -55,8 +62,6 @@ import com.actionbarsherlock.view.MenuItem;
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapController;
 import com.google.android.maps.MapView;
-import com.google.android.maps.Overlay;
-import com.mattprecious.locnotifier.RadiusOverlay.PointType;
 
 import de.android1.overlaymanager.ManagedOverlay;
 import de.android1.overlaymanager.ManagedOverlayGestureDetector;
@@ -67,10 +72,18 @@ import de.android1.overlaymanager.ZoomEvent;
 public class ShowMap extends SherlockMapActivity {
     public static final long MIN_DISTANCE = 50;
 
+    // quiet time after a keystroke before suggestions are looked up
+    private static final long SUGGEST_DELAY = 300;
+    // shorter queries only go to the offline index, the geocoder can't do much with them
+    private static final int SUGGEST_GEOCODER_MIN_LENGTH = 3;
+
+    private static final String[] SUGGESTION_COLUMNS = { BaseColumns._ID,
+            SearchManager.SUGGEST_COLUMN_TEXT_1, };
+
     public static final String EXTRA_DEST_LAT = "dest_lat";
     public static final String EXTRA_DEST_LNG = "dest_lng";
 
-    private LocationManager locationManager;
+    private LocationSource locationSource;
     private LocationListener locationListener;
 
     private SharedPreferences preferences;
@@ -81,10 +94,7 @@ public class ShowMap extends SherlockMapActivity {
 
     private OverlayManager overlayManager;
 
-    private PointOverlay locationPoint;
-    private PointOverlay destinationPoint;
-    private RadiusOverlay locationRadius;
-    private RadiusOverlay destinationRadius;
+    private MapOverlayModel overlayModel;
     private ManagedOverlay overlayListener;
 
     private MapView mapView;
@@ -93,12 +103,32 @@ public class ShowMap extends SherlockMapActivity {
     private LinearLayout distanceBarPanel;
     private SeekBar distanceBar;
     private long distance;
+    private RadiusController radiusController;
 
     private boolean gpsEnabled;
     private boolean followLocation;
 
     private List<Address> searchResults;
 
+    private final Handler suggestHandler = new Handler();
+    private final Runnable suggestRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            requestSuggestions(typedQuery);
+        }
+    };
+
+    private String typedQuery;
+    // the one live suggestion lookup, and the latest query waiting for it to finish
+    private SuggestTask suggestTask;
+    private String pendingSuggestQuery;
+    private String suggestedQuery;
+    private List<Address> suggestions;
+    private SimpleCursorAdapter suggestionsAdapter;
+
+    private ImportTask importTask;
+
     private final int DIALOG_ID_SEARCH = 1;
     private final int DIALOG_ID_SEARCHING = 2;
     private final int DIALOG_ID_SEARCH_RESULTS = 3;
@@ -122,23 +152,32 @@ public class ShowMap extends SherlockMapActivity {
 
         distanceBarPanel = (LinearLayout) findViewById(R.id.distance_bar_panel);
         distanceBar = (SeekBar) findViewById(R.id.distance_bar);
+        radiusController = new RadiusController(mapView, distanceBar, MIN_DISTANCE,
+                new RadiusController.OnRadiusChangeListener() {
+
+                    @Override
+                    public void onRadiusChanged(float meters) {
+                        distance = (long) meters;
+                    }
+                });
+        mapView.setOnTouchListener(radiusController);
+
         distanceBar.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
-            private UpdateDistanceTask updateDistanceTask;
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                radiusController.stopNudging();
                 seekBar.setProgress(4);
-                updateDistanceTask.cancel(true);
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
-                updateDistanceTask = (UpdateDistanceTask) new UpdateDistanceTask().execute();
+                radiusController.startNudging();
             }
 
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-
+                radiusController.onProgressChanged();
             }
         });
 
@@ -148,6 +187,8 @@ public class ShowMap extends SherlockMapActivity {
         gpsEnabled = preferences.getBoolean("use_gps", true);
         followLocation = false;
 
+        overlayModel = new MapOverlayModel(mapView);
+
         overlayManager = new OverlayManager(this, mapView);
         overlayListener = overlayManager.createOverlay("overlayListener");
 
@@ -219,7 +260,10 @@ public class ShowMap extends SherlockMapActivity {
         overlayManager.populate();
 
         // Acquire a reference to the system Location Manager
-        locationManager = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
+        locationSource = ReplayLocationSource.fromIntent(this, getIntent());
+        if (locationSource == null) {
+            locationSource = new SystemLocationSource(this);
+        }
 
         // Define a listener that responds to location updates
         locationListener = new LocationListener() {
@@ -241,9 +285,9 @@ public class ShowMap extends SherlockMapActivity {
             }
         };
 
-        bestLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+        bestLocation = locationSource.getLastKnownLocation(LocationManager.GPS_PROVIDER);
         if (bestLocation == null) {
-            bestLocation = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+            bestLocation = locationSource.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
         }
 
         if (bestLocation != null) {
@@ -253,7 +297,6 @@ public class ShowMap extends SherlockMapActivity {
 
         int dest_lat = preferences.getInt("dest_lat", 0);
         int dest_lng = preferences.getInt("dest_lng", 0);
-        float dest_radius = preferences.getFloat("dest_radius", 0);
 
         boolean moveToDestination = false;
         if (extras != null && extras.containsKey(EXTRA_DEST_LAT)
@@ -271,21 +314,15 @@ public class ShowMap extends SherlockMapActivity {
         }
 
         if (dest_lat != 0 && dest_lng != 0) {
-            destinationPoint = new PointOverlay(destination, PointType.DESTINATION);
-        }
-
-        if (dest_radius != 0) {
-            destinationRadius = new RadiusOverlay(destination, dest_radius, PointType.DESTINATION);
+            showDestination(destination);
         }
 
+        // shared text is often a whole message, look through every line of it
         if (extras != null && extras.containsKey(Intent.EXTRA_TEXT)) {
-            String location = extras.getString(Intent.EXTRA_TEXT);
-            location = location.split("\n")[0];
-
-            search(location);
+            importTask = new ImportTask();
+            importTask.execute(extras.getString(Intent.EXTRA_TEXT));
         }
 
-        redraw();
         showHint();
     }
 
@@ -294,17 +331,17 @@ public class ShowMap extends SherlockMapActivity {
         super.onResume();
 
         // Register the listener with the Location Manager to receive location updates
-        locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0,
-                locationListener);
-        locationManager
-                .requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, locationListener);
+        locationSource.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0,
+                locationListener, null);
+        locationSource.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0,
+                locationListener, null);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
 
-        locationManager.removeUpdates(locationListener);
+        locationSource.removeUpdates(locationListener);
     }
 
     @Override
@@ -319,7 +356,18 @@ public class ShowMap extends SherlockMapActivity {
 
     @Override
     protected void onDestroy() {
-        locationManager.removeUpdates(locationListener);
+        locationSource.removeUpdates(locationListener);
+
+        suggestHandler.removeCallbacks(suggestRunnable);
+        pendingSuggestQuery = null;
+        if (suggestTask != null) {
+            suggestTask.supersede();
+            suggestTask.cancel(true);
+        }
+
+        if (importTask != null) {
+            importTask.cancel(true);
+        }
 
         super.onDestroy();
     }
@@ -383,13 +431,7 @@ public class ShowMap extends SherlockMapActivity {
 
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        Address address = searchResults.get(which);
-                        GeoPoint point = getPoint(address);
-
-                        destinationPoint = new PointOverlay(point, PointType.DESTINATION);
-
-                        redraw();
-                        moveToDestination();
+                        selectSearchResult(searchResults.get(which));
 
                         removeDialog(DIALOG_ID_SEARCH_RESULTS);
                     }
@@ -412,19 +454,67 @@ public class ShowMap extends SherlockMapActivity {
 
         // SearchView was added in HC
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            SearchView searchView = (SearchView) menu.findItem(R.id.menu_search).getActionView();
+            final MenuItem searchItem = menu.findItem(R.id.menu_search);
+            SearchView searchView = (SearchView) searchItem.getActionView();
+
+            suggestionsAdapter = new SimpleCursorAdapter(this,
+                    android.R.layout.simple_list_item_1, null,
+                    new String[] { SearchManager.SUGGEST_COLUMN_TEXT_1, },
+                    new int[] { android.R.id.text1, }, 0);
+            searchView.setSuggestionsAdapter(suggestionsAdapter);
+
             searchView.setOnQueryTextListener(new OnQueryTextListener() {
 
                 @Override
                 public boolean onQueryTextSubmit(String query) {
+                    suggestHandler.removeCallbacks(suggestRunnable);
+
+                    // the suggestions showing are already the answer
+                    if (query.trim().equals(suggestedQuery) && !suggestions.isEmpty()) {
+                        searchResults = suggestions;
+                        showDialog(DIALOG_ID_SEARCH_RESULTS);
+                        return true;
+                    }
+
                     search(query);
                     return true;
                 }
 
                 @Override
                 public boolean onQueryTextChange(String newText) {
+                    typedQuery = newText.trim();
+
+                    suggestHandler.removeCallbacks(suggestRunnable);
+                    if (typedQuery.length() == 0) {
+                        // a lookup still running mustn't bring its answer back
+                        pendingSuggestQuery = null;
+                        if (suggestTask != null) {
+                            suggestTask.supersede();
+                        }
+
+                        showSuggestions(null, new ArrayList<Address>());
+                    } else {
+                        suggestHandler.postDelayed(suggestRunnable, SUGGEST_DELAY);
+                    }
+
+                    return true;
+                }
+            });
+
+            searchView.setOnSuggestionListener(new OnSuggestionListener() {
+
+                @Override
+                public boolean onSuggestionSelect(int position) {
                     return false;
                 }
+
+                @Override
+                public boolean onSuggestionClick(int position) {
+                    selectSearchResult(suggestions.get(position));
+                    searchItem.collapseActionView();
+
+                    return true;
+                }
             });
         }
 
@@ -457,9 +547,8 @@ public class ShowMap extends SherlockMapActivity {
             case R.id.menu_save:
                 Editor editor = preferences.edit();
 
-                if (destinationPoint != null) {
-                    GeoPoint destination = destinationPoint.getPoint();
-
+                GeoPoint destination = overlayModel.getDestination();
+                if (destination != null) {
                     editor.putInt("dest_lat", destination.getLatitudeE6());
                     editor.putInt("dest_lng", destination.getLongitudeE6());
                 }
@@ -469,8 +558,8 @@ public class ShowMap extends SherlockMapActivity {
                 editor.commit();
 
                 if (LocationService.isRunning()) {
-                    stopService(new Intent(getApplicationContext(), LocationService.class));
-                    startService(new Intent(getApplicationContext(), LocationService.class));
+                    startService(new Intent(getApplicationContext(), LocationService.class)
+                            .setAction(LocationService.ACTION_RELOAD));
                 }
 
                 finish();
@@ -495,7 +584,7 @@ public class ShowMap extends SherlockMapActivity {
 
                 return true;
             case R.id.menu_distance:
-                if (destinationPoint == null) {
+                if (overlayModel.getDestination() == null) {
                     Toast.makeText(getApplicationContext(), R.string.no_destination,
                             Toast.LENGTH_SHORT).show();
                     return true;
@@ -505,9 +594,11 @@ public class ShowMap extends SherlockMapActivity {
 
                 if (distanceBarPanel.getVisibility() == View.GONE) {
                     distanceBarPanel.setVisibility(View.VISIBLE);
+                    radiusController.setEnabled(true);
                     moveToDestination();
                 } else {
                     distanceBarPanel.setVisibility(View.GONE);
+                    radiusController.setEnabled(false);
                 }
 
                 return true;
@@ -539,6 +630,65 @@ public class ShowMap extends SherlockMapActivity {
         new SearchTask().execute(query);
     }
 
+    /**
+     * Starts looking up suggestions for a query unless they're showing or on their way already.
+     * Only one lookup runs at a time; a newer query waits for the running one, whose answer is
+     * then thrown away, and replaces any other query that was waiting. Typing back to the running
+     * query after it was superseded queues it again, since the superseded task may already have
+     * skipped the geocoder.
+     */
+    private void requestSuggestions(String query) {
+        if (query.equals(suggestedQuery) && suggestTask == null) {
+            return;
+        }
+
+        if (suggestTask != null) {
+            if (query.equals(suggestTask.query) && !suggestTask.superseded) {
+                pendingSuggestQuery = null;
+            } else {
+                pendingSuggestQuery = query;
+                suggestTask.supersede();
+            }
+
+            return;
+        }
+
+        suggestTask = new SuggestTask(query);
+        suggestTask.execute();
+    }
+
+    private void onSuggestTaskFinished() {
+        suggestTask = null;
+
+        if (pendingSuggestQuery != null) {
+            String query = pendingSuggestQuery;
+            pendingSuggestQuery = null;
+
+            requestSuggestions(query);
+        }
+    }
+
+    private void showSuggestions(String query, List<Address> addresses) {
+        suggestedQuery = query;
+        suggestions = addresses;
+
+        if (suggestionsAdapter == null) {
+            return;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(SUGGESTION_COLUMNS, addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            cursor.addRow(new Object[] { i, LocationHelper.addressToString(addresses.get(i)), });
+        }
+
+        suggestionsAdapter.changeCursor(cursor);
+    }
+
+    private void selectSearchResult(Address address) {
+        showDestination(getPoint(address));
+        moveToDestination();
+    }
+
     private void moveToLocation() {
         if (bestLocation != null) {
             moveTo(getPoint(bestLocation));
@@ -546,8 +696,9 @@ public class ShowMap extends SherlockMapActivity {
     }
 
     private void moveToDestination() {
-        if (destinationPoint != null) {
-            moveTo(destinationPoint.getPoint());
+        GeoPoint destination = overlayModel.getDestination();
+        if (destination != null) {
+            moveTo(destination);
         }
     }
 
@@ -579,10 +730,7 @@ public class ShowMap extends SherlockMapActivity {
     private void showLocation(Location location) {
         GeoPoint point = getPoint(location);
 
-        locationPoint = new PointOverlay(point, PointType.LOCATION);
-        locationRadius = new RadiusOverlay(point, location.getAccuracy(), PointType.LOCATION);
-
-        redraw();
+        overlayModel.setLocation(point, location.getAccuracy());
 
         if (followLocation) {
             moveToLocation();
@@ -590,60 +738,36 @@ public class ShowMap extends SherlockMapActivity {
     }
 
     private void showDestination(GeoPoint point) {
-        destinationPoint = new PointOverlay(point, PointType.DESTINATION);
-        destinationRadius = new RadiusOverlay(point, distance, PointType.DESTINATION);
-
-        redraw();
-    }
-
-    private void redraw() {
-        List<Overlay> mapOverlays = mapView.getOverlays();
-
-        mapOverlays.clear();
-
-        if (locationRadius != null) {
-            mapOverlays.add(locationRadius);
-        }
-
-        if (locationPoint != null) {
-            mapOverlays.add(locationPoint);
-        }
-
-        if (destinationRadius != null) {
-            mapOverlays.add(destinationRadius);
-        }
-
-        if (destinationPoint != null) {
-            mapOverlays.add(destinationPoint);
-        }
-
-        overlayManager.populate();
-        mapView.invalidate();
+        overlayModel.setDestination(point, distance);
+        radiusController.setOverlay(overlayModel.getDestinationRadius());
     }
 
     private GeoPoint getPoint(Location location) {
-        Double lat = location.getLatitude() * 1E6;
-        Double lng = location.getLongitude() * 1E6;
-
-        return new GeoPoint(lat.intValue(), lng.intValue());
+        return LocationHelper.getPoint(location);
     }
 
     private GeoPoint getPoint(Address address) {
-        Double lat = address.getLatitude() * 1E6;
-        Double lng = address.getLongitude() * 1E6;
-
-        return new GeoPoint(lat.intValue(), lng.intValue());
+        return LocationHelper.addressToPoint(address);
     }
 
     public class SearchTask extends AsyncTask<String, Void, List<Address>> {
+        private Location near;
 
         @Override
         protected void onPreExecute() {
+            near = bestLocation;
             showDialog(DIALOG_ID_SEARCHING);
         }
 
         @Override
         public List<Address> doInBackground(String... query) {
+            // the offline index answers without a round trip, only ask the geocoder on a miss
+            List<Address> places = LocationHelper.searchPlaces(getApplicationContext(), query[0],
+                    near);
+            if (!places.isEmpty()) {
+                return places;
+            }
+
             return LocationHelper.stringToAddresses(getApplicationContext(), query[0]);
         }
 
@@ -661,52 +785,113 @@ public class ShowMap extends SherlockMapActivity {
         }
     }
 
-    public class UpdateDistanceTask extends AsyncTask<Void, Void, Void> {
+    /**
+     * Finds the destination in text shared to the map and shows the best candidate
+     */
+    public class ImportTask extends AsyncTask<String, Void, List<SharedTextImport.Candidate>> {
+
         @Override
-        protected Void doInBackground(Void... params) {
-            while (!this.isCancelled()) {
-                // progress bar has a size of 9, so 4 is the midpoint
-                // don't do anything in the middle
-                if (distanceBar.getProgress() == 4) {
-                    continue;
-                }
+        protected void onPreExecute() {
+            showDialog(DIALOG_ID_SEARCHING);
+        }
 
-                // get absolute difference
-                long modifier = Math.abs(distanceBar.getProgress() - 4);
+        @Override
+        protected List<SharedTextImport.Candidate> doInBackground(String... text) {
+            return SharedTextImport.findCandidates(getApplicationContext(), text[0],
+                    new SharedTextImport.Cancellable() {
+
+                        @Override
+                        public boolean isCancelled() {
+                            return ImportTask.this.isCancelled();
+                        }
+                    });
+        }
 
-                // adjust to exponential growth
-                modifier = (long) Math.pow(2, modifier);
+        @Override
+        protected void onPostExecute(List<SharedTextImport.Candidate> candidates) {
+            importTask = null;
+            dismissDialog(DIALOG_ID_SEARCHING);
 
-                // bring in negation
-                modifier = distanceBar.getProgress() < 4 ? -modifier : modifier;
+            if (candidates.isEmpty()) {
+                Toast.makeText(getApplicationContext(), R.string.no_results, Toast.LENGTH_SHORT)
+                        .show();
+                return;
+            }
 
-                // adjust based on zoom level
-                // zoom level increases as you zoom in, we want to flip this around so the more
-                // zoomed in you are, the less impact it has on the distance slider
-                int invertedZoom = mapView.getMaxZoomLevel() - mapView.getZoomLevel() + 1;
-                modifier = (long) (modifier * Math.pow(2, invertedZoom - 3));
+            showDestination(candidates.get(0).point);
+            moveToDestination();
+        }
+    }
 
-                distance = Math.max(distance + modifier, MIN_DISTANCE);
-                destinationRadius = new RadiusOverlay(destinationPoint.getPoint(), distance,
-                        PointType.DESTINATION);
+    /**
+     * Looks up suggestions for one query: the offline index first, shown as soon as it answers,
+     * then the geocoder
+     */
+    public class SuggestTask extends AsyncTask<Void, List<Address>, List<Address>> {
+        private final String query;
+        private Location near;
 
-                mapView.post(new Runnable() {
+        // not cancel(), before JB onCancelled() runs without waiting for doInBackground() to end
+        private volatile boolean superseded;
 
-                    @Override
-                    public void run() {
-                        redraw();
+        public SuggestTask(String query) {
+            this.query = query;
+        }
 
-                    }
-                });
+        @Override
+        protected void onPreExecute() {
+            near = bestLocation;
+        }
 
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    // do nothing
-                }
+        @Override
+        protected List<Address> doInBackground(Void... params) {
+            List<Address> addresses = LocationHelper.searchPlaces(getApplicationContext(), query,
+                    near);
+
+            if (superseded || query.length() < SUGGEST_GEOCODER_MIN_LENGTH) {
+                return addresses;
+            }
+
+            if (!addresses.isEmpty()) {
+                publishProgress(new ArrayList<Address>(addresses));
+            }
+
+            List<Address> geocoded = LocationHelper.stringToAddresses(getApplicationContext(),
+                    query);
+            if (geocoded != null) {
+                addresses.addAll(geocoded);
+            }
+
+            return addresses;
+        }
+
+        @Override
+        protected void onProgressUpdate(List<Address>... values) {
+            if (!superseded) {
+                showSuggestions(query, values[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<Address> result) {
+            if (!superseded) {
+                showSuggestions(query, result);
             }
 
-            return null;
+            onSuggestTaskFinished();
+        }
+
+        @Override
+        protected void onCancelled() {
+            onSuggestTaskFinished();
+        }
+
+        /**
+         * Drops this task's answer. It still runs to the end, so the next lookup doesn't start
+         * until then.
+         */
+        public void supersede() {
+            superseded = true;
         }
     }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.Geofence;
+
+/**
+ * Hands the arrival text to the {@link SmsDispatcher}, which takes care of actually sending it
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SmsAction implements ArrivalAction {
+    private static final long TIMEOUT = 5000;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+
+    public SmsAction(Context context, SharedPreferences preferences) {
+        this.context = context;
+        this.preferences = preferences;
+    }
+
+    @Override
+    public String getName() {
+        return "sms";
+    }
+
+    @Override
+    public long getTimeout() {
+        return TIMEOUT;
+    }
+
+    @Override
+    public void run(Fix fix, Geofence destination) {
+        if (!preferences.getBoolean("sms_enabled", false)) {
+            return;
+        }
+
+        String number = preferences.getString("sms_contact", null);
+        String message = preferences.getString("sms_message", null);
+
+        if (number != null && message != null) {
+            SmsDispatcher.send(context, SmsDispatcher.parseRecipients(number), message);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+/**
+ * Sends the arrival texts off the caller's thread. Every recipient gets an entry in the
+ * {@link SmsQueue} before anything is sent, so a send survives LocationService stopping right
+ * after asking for it. Long messages go out as multipart texts. Sent and delivered reports come
+ * back through {@link SmsStatusReceiver}, and failed sends are retried with exponential backoff
+ * using an alarm. An attempt with no sent report after {@link #SENDING_TIMEOUT} counts as failed
+ * too. A recipient that still fails after {@link #MAX_ATTEMPTS} gets a notification, naming them
+ * from the {@link ContactCache}.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SmsDispatcher extends IntentService {
+    private static final String TAG = "SmsDispatcher";
+
+    private static final String ACTION_SEND = "com.mattprecious.locnotifier.SMS_SEND";
+    private static final String ACTION_RESULT = "com.mattprecious.locnotifier.SMS_RESULT";
+    private static final String ACTION_RETRY = "com.mattprecious.locnotifier.SMS_RETRY";
+
+    // broadcast by the radio to SmsStatusReceiver
+    static final String ACTION_SENT = "com.mattprecious.locnotifier.SMS_SENT";
+    static final String ACTION_DELIVERED = "com.mattprecious.locnotifier.SMS_DELIVERED";
+
+    private static final String EXTRA_RECIPIENTS = "recipients";
+    private static final String EXTRA_MESSAGE = "message";
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_ATTEMPT = "attempt";
+    private static final String EXTRA_REPORT = "report";
+    private static final String EXTRA_RESULT_CODE = "result_code";
+    private static final String EXTRA_PDU = "pdu";
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF = 30 * 1000;
+    private static final long MAX_BACKOFF = 30 * 60 * 1000;
+
+    // the radio reports a send within seconds, even a failed one. Without one by now we were
+    // likely killed mid-send or the report was lost.
+    private static final long SENDING_TIMEOUT = 10 * 60 * 1000;
+
+    // GSM TP-Status: below this the message was delivered, from this up it's been given up on
+    private static final int STATUS_PENDING = 0x20;
+    private static final int STATUS_FAILED = 0x40;
+
+    public SmsDispatcher() {
+        super(TAG);
+    }
+
+    /**
+     * Queues the message for each recipient and starts sending
+     */
+    public static void send(Context context, String[] recipients, String message) {
+        Intent intent = new Intent(context, SmsDispatcher.class);
+        intent.setAction(ACTION_SEND);
+        intent.putExtra(EXTRA_RECIPIENTS, recipients);
+        intent.putExtra(EXTRA_MESSAGE, message);
+
+        context.startService(intent);
+    }
+
+    /**
+     * @param recipients
+     *            Numbers separated by commas or semicolons
+     */
+    public static String[] parseRecipients(String recipients) {
+        List<String> parsed = new ArrayList<String>();
+        for (String recipient : recipients.split("[,;]")) {
+            recipient = recipient.trim();
+            if (recipient.length() > 0) {
+                parsed.add(recipient);
+            }
+        }
+
+        return parsed.toArray(new String[parsed.size()]);
+    }
+
+    /**
+     * Hands a sent or delivered report from {@link SmsStatusReceiver} to the worker thread
+     */
+    static void onReport(Context context, Intent report, int resultCode) {
+        Intent intent = new Intent(context, SmsDispatcher.class);
+        intent.setAction(ACTION_RESULT);
+        intent.putExtra(EXTRA_REPORT, report.getAction());
+        intent.putExtra(EXTRA_ID, report.getLongExtra(EXTRA_ID, -1));
+        intent.putExtra(EXTRA_ATTEMPT, report.getIntExtra(EXTRA_ATTEMPT, -1));
+        intent.putExtra(EXTRA_RESULT_CODE, resultCode);
+        intent.putExtra(EXTRA_PDU, report.getByteArrayExtra(EXTRA_PDU));
+
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SmsQueue queue = SmsQueue.load(this);
+
+        if (ACTION_SEND.equals(intent.getAction())) {
+            queue.removeFinished();
+
+            String message = intent.getStringExtra(EXTRA_MESSAGE);
+            for (String recipient : intent.getStringArrayExtra(EXTRA_RECIPIENTS)) {
+                queue.add(recipient, message);
+            }
+        } else if (ACTION_RESULT.equals(intent.getAction())) {
+            handleReport(queue, intent);
+        }
+
+        sendDue(queue);
+        scheduleRetry(queue);
+
+        queue.save();
+    }
+
+    private void handleReport(SmsQueue queue, Intent intent) {
+        SmsQueue.Entry entry = queue.get(intent.getLongExtra(EXTRA_ID, -1));
+
+        // a late report for an attempt that's already been retried
+        if (entry == null || entry.attempts != intent.getIntExtra(EXTRA_ATTEMPT, -1)) {
+            return;
+        }
+
+        int resultCode = intent.getIntExtra(EXTRA_RESULT_CODE, Activity.RESULT_CANCELED);
+
+        if (ACTION_SENT.equals(intent.getStringExtra(EXTRA_REPORT))) {
+            if (entry.state != SmsQueue.STATE_SENDING) {
+                return;
+            }
+
+            if (resultCode != Activity.RESULT_OK) {
+                fail(entry, resultCode);
+            } else if (++entry.partsSent == entry.partsTotal) {
+                entry.state = SmsQueue.STATE_SENT;
+                Log.d(TAG, entry.toString());
+            }
+        } else {
+            if (entry.state != SmsQueue.STATE_SENDING && entry.state != SmsQueue.STATE_SENT) {
+                return;
+            }
+
+            int status = getDeliveryStatus(intent.getByteArrayExtra(EXTRA_PDU));
+            if (status >= STATUS_FAILED) {
+                fail(entry, status);
+            } else if (status < STATUS_PENDING && ++entry.partsDelivered == entry.partsTotal) {
+                entry.state = SmsQueue.STATE_DELIVERED;
+                Log.d(TAG, entry.toString());
+            }
+        }
+    }
+
+    private void sendDue(SmsQueue queue) {
+        SmsManager smsManager = SmsManager.getDefault();
+        long now = System.currentTimeMillis();
+
+        for (SmsQueue.Entry entry : queue.getEntries()) {
+            if (entry.state == SmsQueue.STATE_SENDING
+                    && entry.sendStarted + SENDING_TIMEOUT <= now) {
+                Log.w(TAG, entry + ", no sent report after " + SENDING_TIMEOUT / 1000 + "s");
+                fail(entry, SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+            }
+        }
+
+        List<SmsQueue.Entry> due = new ArrayList<SmsQueue.Entry>();
+        for (SmsQueue.Entry entry : queue.getEntries()) {
+            if (entry.state == SmsQueue.STATE_PENDING && entry.nextAttempt <= now) {
+                entry.state = SmsQueue.STATE_SENDING;
+                entry.attempts++;
+                entry.sendStarted = now;
+                entry.partsTotal = smsManager.divideMessage(entry.message).size();
+                entry.partsSent = 0;
+                entry.partsDelivered = 0;
+
+                due.add(entry);
+            }
+        }
+
+        if (due.isEmpty()) {
+            return;
+        }
+
+        // the attempt is counted before anything goes out. If we're killed mid-send it times out
+        // in the sending state and is retried like any failure, which can send a text twice but
+        // never leaves one unsent.
+        queue.save();
+
+        for (SmsQueue.Entry entry : due) {
+            ArrayList<String> parts = smsManager.divideMessage(entry.message);
+            ArrayList<PendingIntent> sentIntents = new ArrayList<PendingIntent>();
+            ArrayList<PendingIntent> deliveryIntents = new ArrayList<PendingIntent>();
+
+            for (int i = 0; i < parts.size(); i++) {
+                sentIntents.add(getReportIntent(ACTION_SENT, entry, i));
+                deliveryIntents.add(getReportIntent(ACTION_DELIVERED, entry, i));
+            }
+
+            try {
+                if (parts.size() == 1) {
+                    smsManager.sendTextMessage(entry.recipient, null, parts.get(0),
+                            sentIntents.get(0), deliveryIntents.get(0));
+                } else {
+                    smsManager.sendMultipartTextMessage(entry.recipient, null, parts, sentIntents,
+                            deliveryIntents);
+                }
+            } catch (IllegalArgumentException e) {
+                // a blank number or message, retrying won't help
+                Log.w(TAG, "Unable to text " + entry.recipient, e);
+
+                entry.attempts = MAX_ATTEMPTS;
+                fail(entry, SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+            }
+        }
+    }
+
+    private void fail(SmsQueue.Entry entry, int error) {
+        entry.lastError = error;
+
+        if (entry.attempts >= MAX_ATTEMPTS) {
+            entry.state = SmsQueue.STATE_FAILED;
+            Log.w(TAG, entry + ", last error " + error);
+
+            notifyFailed(entry);
+            return;
+        }
+
+        long backoff = Math.min(BASE_BACKOFF << (entry.attempts - 1), MAX_BACKOFF);
+
+        entry.state = SmsQueue.STATE_PENDING;
+        entry.nextAttempt = System.currentTimeMillis() + backoff;
+
+        Log.d(TAG, entry + ", error " + error + ", retrying in " + backoff / 1000 + "s");
+    }
+
+    private void scheduleRetry(SmsQueue queue) {
+        long next = Long.MAX_VALUE;
+        for (SmsQueue.Entry entry : queue.getEntries()) {
+            if (entry.state == SmsQueue.STATE_PENDING) {
+                next = Math.min(next, entry.nextAttempt);
+            } else if (entry.state == SmsQueue.STATE_SENDING) {
+                // wake up to give up on it if the sent report never comes
+                next = Math.min(next, entry.sendStarted + SENDING_TIMEOUT);
+            }
+        }
+
+        Intent intent = new Intent(this, SmsDispatcher.class).setAction(ACTION_RETRY);
+        PendingIntent retryIntent = PendingIntent.getService(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        if (next == Long.MAX_VALUE) {
+            alarmManager.cancel(retryIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, next, retryIntent);
+        }
+    }
+
+    private PendingIntent getReportIntent(String action, SmsQueue.Entry entry, int part) {
+        Intent intent = new Intent(this, SmsStatusReceiver.class);
+        intent.setAction(action);
+
+        // keeps each part's intent distinct
+        intent.setData(Uri.parse("sms-report://" + entry.id + "/" + entry.attempts + "/" + part));
+
+        intent.putExtra(EXTRA_ID, entry.id);
+        intent.putExtra(EXTRA_ATTEMPT, entry.attempts);
+
+        return PendingIntent.getBroadcast(this, 0, intent, PendingIntent.FLAG_ONE_SHOT);
+    }
+
+    private void notifyFailed(SmsQueue.Entry entry) {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(), 0);
+
+        String name = ContactCache.getInstance(this).resolveNow(entry.recipient);
+
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this);
+        notificationBuilder.setSmallIcon(R.drawable.notification_alert)
+                .setContentTitle(getString(R.string.sms_failed_title))
+                .setContentText(getString(R.string.sms_failed_text,
+                        (name == null) ? entry.recipient : name))
+                .setContentIntent(contentIntent).setAutoCancel(true);
+
+        NotificationManager notificationManager = (NotificationManager) getSystemService(
+                Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(TAG, (int) entry.id, notificationBuilder.getNotification());
+    }
+
+    private static int getDeliveryStatus(byte[] pdu) {
+        if (pdu == null) {
+            return 0;
+        }
+
+        SmsMessage message = SmsMessage.createFromPdu(pdu);
+        return (message == null) ? 0 : message.getStatus();
+    }
+}
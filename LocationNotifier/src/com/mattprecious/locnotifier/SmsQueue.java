@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Outgoing texts and where each one is up to, kept in shared preferences so a send outlives the
+ * service that asked for it. Only {@link SmsDispatcher} should change it, from its worker thread.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SmsQueue {
+    private static final String TAG = "SmsQueue";
+
+    private static final String PREFERENCES_NAME = "sms_queue";
+    private static final String KEY_ENTRIES = "entries";
+    private static final String KEY_NEXT_ID = "next_id";
+
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_SENDING = 1;
+    public static final int STATE_SENT = 2;
+    public static final int STATE_DELIVERED = 3;
+    public static final int STATE_FAILED = 4;
+
+    public static class Entry {
+        public long id;
+        public String recipient;
+        public String message;
+
+        public int state = STATE_PENDING;
+        public int attempts = 0;
+        public long nextAttempt = 0;
+
+        /** Wall time the current attempt was handed to the radio */
+        public long sendStarted = 0;
+
+        public int partsTotal = 0;
+        public int partsSent = 0;
+        public int partsDelivered = 0;
+
+        /** Result code of the last failure, 0 if there hasn't been one */
+        public int lastError = 0;
+
+        public boolean isFinished() {
+            return state == STATE_SENT || state == STATE_DELIVERED || state == STATE_FAILED;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("recipient", recipient);
+            json.put("message", message);
+            json.put("state", state);
+            json.put("attempts", attempts);
+            json.put("nextAttempt", nextAttempt);
+            json.put("sendStarted", sendStarted);
+            json.put("partsTotal", partsTotal);
+            json.put("partsSent", partsSent);
+            json.put("partsDelivered", partsDelivered);
+            json.put("lastError", lastError);
+            return json;
+        }
+
+        private static Entry fromJson(JSONObject json) throws JSONException {
+            Entry entry = new Entry();
+            entry.id = json.getLong("id");
+            entry.recipient = json.getString("recipient");
+            entry.message = json.getString("message");
+            entry.state = json.getInt("state");
+            entry.attempts = json.getInt("attempts");
+            entry.nextAttempt = json.getLong("nextAttempt");
+            entry.sendStarted = json.optLong("sendStarted", 0);
+            entry.partsTotal = json.getInt("partsTotal");
+            entry.partsSent = json.getInt("partsSent");
+            entry.partsDelivered = json.getInt("partsDelivered");
+            entry.lastError = json.getInt("lastError");
+            return entry;
+        }
+
+        @Override
+        public String toString() {
+            return recipient + ": " + getStateName(state) + " after " + attempts + " attempts";
+        }
+    }
+
+    private final SharedPreferences preferences;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private long nextId;
+
+    private SmsQueue(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    public static SmsQueue load(Context context) {
+        SmsQueue queue = new SmsQueue(context.getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE));
+
+        queue.nextId = queue.preferences.getLong(KEY_NEXT_ID, 1);
+
+        String stored = queue.preferences.getString(KEY_ENTRIES, null);
+        if (stored != null) {
+            try {
+                JSONArray array = new JSONArray(stored);
+                for (int i = 0; i < array.length(); i++) {
+                    queue.entries.add(Entry.fromJson(array.getJSONObject(i)));
+                }
+            } catch (JSONException e) {
+                Log.w(TAG, "Dropping unreadable SMS queue", e);
+                queue.entries.clear();
+            }
+        }
+
+        return queue;
+    }
+
+    public void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                array.put(entry.toJson());
+            }
+        } catch (JSONException e) {
+            // only thrown for non-finite numbers, which we never store
+            throw new RuntimeException(e);
+        }
+
+        preferences.edit().putString(KEY_ENTRIES, array.toString()).putLong(KEY_NEXT_ID, nextId)
+                .commit();
+    }
+
+    public Entry add(String recipient, String message) {
+        Entry entry = new Entry();
+        entry.id = nextId++;
+        entry.recipient = recipient;
+        entry.message = message;
+
+        entries.add(entry);
+        return entry;
+    }
+
+    public Entry get(long id) {
+        for (Entry entry : entries) {
+            if (entry.id == id) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Forgets everything that's done, so only the latest batch is reported
+     */
+    public void removeFinished() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).isFinished()) {
+                entries.remove(i);
+            }
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public static String getStateName(int state) {
+        switch (state) {
+            case STATE_PENDING:
+                return "pending";
+            case STATE_SENDING:
+                return "sending";
+            case STATE_SENT:
+                return "sent";
+            case STATE_DELIVERED:
+                return "delivered";
+            case STATE_FAILED:
+                return "failed";
+            default:
+                return "unknown";
+        }
+    }
+}
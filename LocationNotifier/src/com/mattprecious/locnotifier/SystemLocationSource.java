@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+/**
+ * Passes everything through to the system LocationManager
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SystemLocationSource implements LocationSource {
+
+    private LocationManager locationManager;
+
+    public SystemLocationSource(Context context) {
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+    }
+
+    @Override
+    public void requestLocationUpdates(String provider, long minTime, float minDistance,
+            LocationListener listener, Looper looper) {
+        if (looper == null) {
+            locationManager.requestLocationUpdates(provider, minTime, minDistance, listener);
+        } else {
+            locationManager.requestLocationUpdates(provider, minTime, minDistance, listener,
+                    looper);
+        }
+    }
+
+    @Override
+    public void removeUpdates(LocationListener listener) {
+        locationManager.removeUpdates(listener);
+    }
+
+    @Override
+    public Location getLastKnownLocation(String provider) {
+        return locationManager.getLastKnownLocation(provider);
+    }
+
+    @Override
+    public void addProximityAlert(double latitude, double longitude, float radius,
+            long expiration, PendingIntent intent) {
+        locationManager.addProximityAlert(latitude, longitude, radius, expiration, intent);
+    }
+
+    @Override
+    public void removeProximityAlert(PendingIntent intent) {
+        locationManager.removeProximityAlert(intent);
+    }
+}
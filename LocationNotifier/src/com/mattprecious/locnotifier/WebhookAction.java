@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.mattprecious.locnotifier.core.Fix;
+import com.mattprecious.locnotifier.core.GeoMath;
+import com.mattprecious.locnotifier.core.Geofence;
+import com.mattprecious.locnotifier.core.WebhookDispatcher;
+
+/**
+ * Posts the arrival to the webhook URL from the preferences. The {@link WebhookDispatcher} lives
+ * as long as the process, so arrivals close together share a batch. The action waits a while for
+ * its event to go out, then leaves it to the dispatcher.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class WebhookAction implements ArrivalAction {
+    private static final String TAG = "WebhookAction";
+
+    private static final long TIMEOUT = 30000;
+
+    // well inside the timeout, so a slow server is logged here rather than interrupted
+    private static final long IDLE_WAIT = 10000;
+
+    private static WebhookDispatcher dispatcher;
+
+    private final SharedPreferences preferences;
+
+    public WebhookAction(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    @Override
+    public String getName() {
+        return "webhook";
+    }
+
+    @Override
+    public long getTimeout() {
+        return TIMEOUT;
+    }
+
+    @Override
+    public void run(Fix fix, Geofence destination) throws JSONException, InterruptedException {
+        if (!preferences.getBoolean("webhook_enabled", false)) {
+            return;
+        }
+
+        WebhookDispatcher webhook = getDispatcher(preferences.getString("webhook_url", null));
+        if (webhook == null) {
+            return;
+        }
+
+        JSONObject event = new JSONObject();
+        event.put("event", "arrival");
+        event.put("time", fix.getTime());
+        event.put("latitude", fix.getLatitude());
+        event.put("longitude", fix.getLongitude());
+        event.put("accuracy", fix.getAccuracy());
+        event.put("destinationLatitude", GeoMath.fromE6(destination.getLatitudeE6()));
+        event.put("destinationLongitude", GeoMath.fromE6(destination.getLongitudeE6()));
+        event.put("radius", destination.getRadius());
+
+        if (!webhook.enqueue(event.toString())) {
+            Log.w(TAG, "Webhook queue full, arrival dropped");
+            return;
+        }
+
+        if (webhook.awaitIdle(IDLE_WAIT)) {
+            Log.d(TAG, "Webhook " + webhook);
+        } else {
+            Log.w(TAG, "Webhook still sending after " + IDLE_WAIT + "ms, " + webhook);
+        }
+    }
+
+    private static synchronized WebhookDispatcher getDispatcher(String url) {
+        if (url == null || url.length() == 0) {
+            return null;
+        }
+
+        if (dispatcher != null && dispatcher.getUrl().toString().equals(url)) {
+            return dispatcher;
+        }
+
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+
+        try {
+            dispatcher = new WebhookDispatcher(new URL(url));
+        } catch (MalformedURLException e) {
+            Log.w(TAG, "Invalid webhook URL " + url, e);
+        }
+
+        return dispatcher;
+    }
+}
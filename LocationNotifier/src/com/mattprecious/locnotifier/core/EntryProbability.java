@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * Estimates how likely it is that the device is inside a geofence, given a fix and its accuracy.
+ * 
+ * The fix is treated as a circular normal distribution. Android reports accuracy as the radius
+ * holding 68% of that distribution, which works out to about 1.5 standard deviations. Along the
+ * line from the geofence center through the fix the chance of being inside is then roughly
+ * Phi((radius - distance) / sigma), read from a precomputed table of the standard normal CDF.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class EntryProbability {
+    // accuracy / sigma for a 68% circle, sqrt(-2 ln(0.32))
+    private static final double ACCURACY_PER_SIGMA = 1.5096;
+
+    private static final double TABLE_RANGE = 4;
+    private static final int TABLE_STEPS_PER_SIGMA = 100;
+    private static final float[] CDF = new float[(int) (2 * TABLE_RANGE * TABLE_STEPS_PER_SIGMA)
+            + 1];
+
+    static {
+        for (int i = 0; i < CDF.length; i++) {
+            double z = (double) i / TABLE_STEPS_PER_SIGMA - TABLE_RANGE;
+            CDF[i] = (float) normalCdf(z);
+        }
+    }
+
+    private EntryProbability() {
+    }
+
+    /**
+     * @param distance
+     *            Distance in meters from the fix to the geofence center
+     * @param radius
+     *            Radius of the geofence in meters
+     * @param accuracy
+     *            Accuracy of the fix in meters
+     * @return the probability, 0 to 1, that the device is inside the geofence
+     */
+    public static float inside(float distance, float radius, float accuracy) {
+        if (accuracy <= 0) {
+            return (distance <= radius) ? 1 : 0;
+        }
+
+        double sigma = accuracy / ACCURACY_PER_SIGMA;
+        double z = (radius - distance) / sigma;
+
+        if (z <= -TABLE_RANGE) {
+            return 0;
+        } else if (z >= TABLE_RANGE) {
+            return 1;
+        }
+
+        double position = (z + TABLE_RANGE) * TABLE_STEPS_PER_SIGMA;
+        int index = (int) position;
+        float fraction = (float) (position - index);
+
+        return CDF[index] + (CDF[index + 1] - CDF[index]) * fraction;
+    }
+
+    /**
+     * Standard normal CDF using the Abramowitz and Stegun 7.1.26 approximation of erf, good to
+     * about 1e-7. Only used to build the table.
+     */
+    private static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t
+                * (0.254829592 + t
+                        * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))))
+                * Math.exp(-x * x);
+
+        return (z >= 0) ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * Predicts time of arrival at a geofence from the recent fix history. Velocity is kept as
+ * smoothed north and east components, taken from the fix's own speed and bearing when it has them
+ * and from the displacement across the history otherwise. Only the part of the velocity pointing
+ * at the geofence counts toward arrival.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class EtaEstimator {
+    /** Returned when there's no sensible estimate, e.g. the user isn't heading toward it */
+    public static final long UNKNOWN = -1;
+
+    private static final int HISTORY_SIZE = 5;
+
+    // weight given to the newest velocity sample
+    private static final double SMOOTHING = 0.3;
+
+    // slower than this toward the geofence and we don't guess
+    private static final double MIN_CLOSING_SPEED = 0.5;
+
+    private final Fix[] history = new Fix[HISTORY_SIZE];
+    private int historyCount = 0;
+    private int historyNext = 0;
+
+    // meters per second
+    private double velocityNorth;
+    private double velocityEast;
+    private boolean hasVelocity = false;
+
+    public EtaEstimator() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = new Fix();
+        }
+    }
+
+    public void update(Fix fix) {
+        double north;
+        double east;
+
+        if (fix.hasSpeed() && fix.hasBearing()) {
+            double bearing = Math.toRadians(fix.getBearing());
+            north = fix.getSpeed() * Math.cos(bearing);
+            east = fix.getSpeed() * Math.sin(bearing);
+        } else if (historyCount > 0) {
+            Fix oldest = history[(historyNext - historyCount + HISTORY_SIZE) % HISTORY_SIZE];
+            long dt = fix.getTime() - oldest.getTime();
+            if (dt <= 0) {
+                return;
+            }
+
+            double seconds = dt / 1000.0;
+            double bearing = Math.toRadians(GeoMath.bearing(oldest.getLatitude(),
+                    oldest.getLongitude(), fix.getLatitude(), fix.getLongitude()));
+            double speed = GeoMath.distance(oldest, fix) / seconds;
+
+            north = speed * Math.cos(bearing);
+            east = speed * Math.sin(bearing);
+        } else {
+            north = Double.NaN;
+            east = Double.NaN;
+        }
+
+        if (!Double.isNaN(north)) {
+            if (hasVelocity) {
+                velocityNorth += SMOOTHING * (north - velocityNorth);
+                velocityEast += SMOOTHING * (east - velocityEast);
+            } else {
+                velocityNorth = north;
+                velocityEast = east;
+                hasVelocity = true;
+            }
+        }
+
+        history[historyNext].set(fix);
+        historyNext = (historyNext + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+    }
+
+    public void reset() {
+        historyCount = 0;
+        hasVelocity = false;
+    }
+
+    /**
+     * @return the smoothed speed in meters per second, or 0 if unknown
+     */
+    public float getSpeed() {
+        if (!hasVelocity) {
+            return 0;
+        }
+
+        return (float) Math.sqrt(velocityNorth * velocityNorth + velocityEast * velocityEast);
+    }
+
+    /**
+     * @return seconds until the edge of the geofence is reached, 0 if already inside, or
+     *         {@link #UNKNOWN}
+     */
+    public long getEta(Fix fix, Geofence geofence) {
+        float distanceToEdge = GeoMath.distance(fix, geofence) - geofence.getRadius();
+        if (distanceToEdge <= 0) {
+            return 0;
+        }
+
+        if (!hasVelocity) {
+            return UNKNOWN;
+        }
+
+        double bearing = Math.toRadians(GeoMath.bearing(fix.getLatitude(), fix.getLongitude(),
+                GeoMath.fromE6(geofence.getLatitudeE6()),
+                GeoMath.fromE6(geofence.getLongitudeE6())));
+        double closingSpeed = velocityNorth * Math.cos(bearing) + velocityEast * Math.sin(bearing);
+
+        if (closingSpeed < MIN_CLOSING_SPEED) {
+            return UNKNOWN;
+        }
+
+        return (long) (distanceToEdge / closingSpeed);
+    }
+}
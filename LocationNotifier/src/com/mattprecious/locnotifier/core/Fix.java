@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * A single location reading. This is the core's stand-in for android.location.Location so the
+ * decision logic can run on a plain JVM.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class Fix {
+    public static final int PROVIDER_UNKNOWN = 0;
+    public static final int PROVIDER_GPS = 1;
+    public static final int PROVIDER_NETWORK = 2;
+    public static final int PROVIDER_PASSIVE = 3;
+
+    private long time;
+    private double latitude;
+    private double longitude;
+    private float accuracy;
+    private int provider;
+    private float speed = Float.NaN;
+    private float bearing = Float.NaN;
+
+    public Fix() {
+    }
+
+    public Fix(long time, double latitude, double longitude, float accuracy, int provider) {
+        set(time, latitude, longitude, accuracy, provider);
+    }
+
+    /**
+     * Overwrite this fix in place. Speed and bearing are cleared.
+     */
+    public Fix set(long time, double latitude, double longitude, float accuracy, int provider) {
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.provider = provider;
+        this.speed = Float.NaN;
+        this.bearing = Float.NaN;
+
+        return this;
+    }
+
+    public Fix set(Fix fix) {
+        set(fix.time, fix.latitude, fix.longitude, fix.accuracy, fix.provider);
+        this.speed = fix.speed;
+        this.bearing = fix.bearing;
+
+        return this;
+    }
+
+    /** Time of the fix in milliseconds since the epoch */
+    public long getTime() {
+        return time;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public int getLatitudeE6() {
+        return GeoMath.toE6(latitude);
+    }
+
+    public int getLongitudeE6() {
+        return GeoMath.toE6(longitude);
+    }
+
+    /** Radius in meters of 68% confidence */
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public int getProvider() {
+        return provider;
+    }
+
+    public boolean hasSpeed() {
+        return !Float.isNaN(speed);
+    }
+
+    /** Speed in meters per second, or NaN if unknown */
+    public float getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(float speed) {
+        this.speed = speed;
+    }
+
+    public boolean hasBearing() {
+        return !Float.isNaN(bearing);
+    }
+
+    /** Bearing in degrees east of true north, or NaN if unknown */
+    public float getBearing() {
+        return bearing;
+    }
+
+    public void setBearing(float bearing) {
+        this.bearing = bearing;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * A smoothing stage that accepted fixes pass through before the geofence test
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public interface FixFilter {
+
+    /**
+     * Feed a new fix into the filter
+     * 
+     * @return the filtered estimate. Implementations may reuse the returned object between calls.
+     */
+    public Fix filter(Fix fix);
+
+    /**
+     * Forget all history
+     */
+    public void reset();
+}
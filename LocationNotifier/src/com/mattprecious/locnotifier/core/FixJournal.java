@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size ring buffer of fixes and the decisions made about them, memory-mapped to a file so
+ * it survives the process. Appending writes straight into the mapping and doesn't allocate, so
+ * it's safe to call from the location callback.
+ * 
+ * Each record is {@value #RECORD_SIZE} bytes: time, E6 latitude and longitude, accuracy, provider
+ * id and decision.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class FixJournal {
+    private static final int MAGIC = 0x4c4e464a; // LNFJ
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 24;
+
+    // header layout
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_COUNT = 16;
+
+    // record layout
+    private static final int OFFSET_TIME = 0;
+    private static final int OFFSET_LAT = 8;
+    private static final int OFFSET_LNG = 12;
+    private static final int OFFSET_ACCURACY = 16;
+    private static final int OFFSET_PROVIDER = 20;
+    private static final int OFFSET_DECISION = 21;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // total records ever appended, the oldest surviving one is count - capacity
+    private long count;
+
+    /**
+     * Opens the journal, creating it if it doesn't exist. An existing journal with a different
+     * capacity is discarded.
+     * 
+     * @param capacity
+     *            Number of records to keep
+     */
+    public FixJournal(File path, int capacity) throws IOException {
+        this.capacity = capacity;
+
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+
+        file = new RandomAccessFile(path, "rw");
+        boolean fresh = file.length() != size;
+        if (fresh) {
+            file.setLength(size);
+        }
+
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (fresh || buffer.getInt(OFFSET_MAGIC) != MAGIC
+                || buffer.getInt(OFFSET_VERSION) != VERSION
+                || buffer.getInt(OFFSET_CAPACITY) != capacity) {
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            buffer.putLong(OFFSET_COUNT, 0);
+        }
+
+        count = buffer.getLong(OFFSET_COUNT);
+    }
+
+    public synchronized void append(Fix fix, int decision) {
+        int offset = getOffset(count);
+
+        buffer.putLong(offset + OFFSET_TIME, fix.getTime());
+        buffer.putInt(offset + OFFSET_LAT, fix.getLatitudeE6());
+        buffer.putInt(offset + OFFSET_LNG, fix.getLongitudeE6());
+        buffer.putFloat(offset + OFFSET_ACCURACY, fix.getAccuracy());
+        buffer.put(offset + OFFSET_PROVIDER, (byte) fix.getProvider());
+        buffer.put(offset + OFFSET_DECISION, (byte) decision);
+
+        count++;
+        buffer.putLong(OFFSET_COUNT, count);
+    }
+
+    /**
+     * @return the number of records currently held
+     */
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Reads a record into the given fix. Index 0 is the oldest record still held.
+     * 
+     * @return the decision stored with the fix
+     */
+    public synchronized int read(int index, Fix fix) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        }
+
+        int offset = getOffset(count - size() + index);
+
+        fix.set(buffer.getLong(offset + OFFSET_TIME),
+                GeoMath.fromE6(buffer.getInt(offset + OFFSET_LAT)),
+                GeoMath.fromE6(buffer.getInt(offset + OFFSET_LNG)),
+                buffer.getFloat(offset + OFFSET_ACCURACY), buffer.get(offset + OFFSET_PROVIDER));
+
+        return buffer.get(offset + OFFSET_DECISION);
+    }
+
+    /**
+     * Writes every record held, oldest first, as CSV in the {@link Trace} format with the decision
+     * as an extra column. Appends can carry on while this runs; records are locked one at a time.
+     */
+    public void dump(Writer writer) throws IOException {
+        Fix fix = new Fix();
+        long start;
+        int size;
+
+        synchronized (this) {
+            start = count - size();
+            size = size();
+        }
+
+        for (int i = 0; i < size; i++) {
+            int decision;
+
+            synchronized (this) {
+                long oldest = count - size();
+                if (start + i < oldest) {
+                    // overwritten while we were dumping
+                    continue;
+                }
+
+                decision = read((int) (start + i - oldest), fix);
+            }
+
+            writer.write(fix.getTime() + "," + fix.getLatitude() + "," + fix.getLongitude() + ","
+                    + fix.getAccuracy() + "," + Trace.getProviderName(fix.getProvider()) + ","
+                    + decision + "\n");
+        }
+
+        writer.flush();
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        buffer.putLong(OFFSET_COUNT, 0);
+    }
+
+    /**
+     * Flushes the mapping to disk and releases the file
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private int getOffset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+}
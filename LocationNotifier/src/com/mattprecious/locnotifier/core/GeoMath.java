@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * Distance and coordinate helpers
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class GeoMath {
+    /** Mean radius of the earth in meters */
+    public static final double EARTH_RADIUS = 6371009;
+
+    /** Length of one degree of latitude in meters */
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Rounds rather than truncates, so a value read back with {@link #fromE6(int)} gives the same
+     * E6 value again
+     */
+    public static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1E6);
+    }
+
+    public static double fromE6(int degreesE6) {
+        return degreesE6 / 1E6;
+    }
+
+    /**
+     * Great-circle distance between two points using the haversine formula. This is within about
+     * 0.5% of the ellipsoidal distance Location.distanceTo gives, which is plenty for geofences.
+     * 
+     * @return the distance in meters
+     */
+    public static float distance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+
+        double sinLat = Math.sin(dLat / 2);
+        double sinLng = Math.sin(dLng / 2);
+
+        double a = sinLat * sinLat + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+
+        return (float) (2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a))));
+    }
+
+    public static float distance(Fix fix, Geofence geofence) {
+        return distance(fix.getLatitude(), fix.getLongitude(),
+                fromE6(geofence.getLatitudeE6()), fromE6(geofence.getLongitudeE6()));
+    }
+
+    public static float distance(Fix from, Fix to) {
+        return distance(from.getLatitude(), from.getLongitude(), to.getLatitude(),
+                to.getLongitude());
+    }
+
+    /**
+     * Initial bearing from the first point to the second
+     * 
+     * @return the bearing in degrees east of true north, 0 to 360
+     */
+    public static float bearing(double lat1, double lng1, double lat2, double lng2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLng = Math.toRadians(lng2 - lng1);
+
+        double y = Math.sin(dLng) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2)
+                * Math.cos(dLng);
+
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return (float) ((bearing + 360) % 360);
+    }
+}
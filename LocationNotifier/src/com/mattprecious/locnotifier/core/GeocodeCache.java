@@ -0,0 +1,413 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Geocoder answers by query, held in a small in-memory LRU in front of one file per query on
+ * disk. Queries are normalized first, so "10 Main St." and " 10  main st" share an entry.
+ * 
+ * Entries older than the TTL are misses for {@link #get(String, long)}, but
+ * {@link #getStale(String)} still returns them so a search can be answered while offline. Empty
+ * answers get a much shorter TTL, since the geocoder may well place a query later that it
+ * couldn't place now. When the disk store grows past its byte limit the least recently used files
+ * are deleted.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class GeocodeCache {
+    private static final int MAGIC = 0x4c4e4743; // LNGC
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".geo";
+
+    /**
+     * The parts of an address worth keeping. Any of the strings can be null.
+     */
+    public static class Place {
+        public double latitude;
+        public double longitude;
+        public String[] lines = new String[0];
+        public String featureName;
+        public String thoroughfare;
+        public String locality;
+        public String postalCode;
+        public String countryCode;
+    }
+
+    private static class Entry {
+        final String query;
+        final long time;
+        final List<Place> places;
+
+        Entry(String query, long time, List<Place> places) {
+            this.query = query;
+            this.time = time;
+            this.places = places;
+        }
+    }
+
+    private final File dir;
+    private final long maxDiskBytes;
+    private final long ttl;
+    private final long emptyTtl;
+    private final Map<String, Entry> memory;
+
+    // -1 until the directory has been scanned
+    private long diskBytes = -1;
+
+    private long memoryHits;
+    private long diskHits;
+    private long staleHits;
+    private long misses;
+
+    /**
+     * @param dir
+     *            Directory for the disk store, created if it doesn't exist
+     * @param memoryEntries
+     *            Number of queries to keep in memory
+     * @param maxDiskBytes
+     *            Size the disk store is trimmed to
+     * @param ttl
+     *            Age in milliseconds after which an entry is only returned by
+     *            {@link #getStale(String)}
+     * @param emptyTtl
+     *            The same for an entry with no places
+     */
+    public GeocodeCache(File dir, final int memoryEntries, long maxDiskBytes, long ttl,
+            long emptyTtl) {
+        this.dir = dir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttl = ttl;
+        this.emptyTtl = emptyTtl;
+
+        memory = new LinkedHashMap<String, Entry>(memoryEntries, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Lower case, with runs of whitespace collapsed and trailing punctuation dropped
+     */
+    public static String normalize(String query) {
+        String key = query.trim().toLowerCase(Locale.US).replaceAll("\\s+", " ");
+
+        int end = key.length();
+        while (end > 0 && ".,;".indexOf(key.charAt(end - 1)) >= 0) {
+            end--;
+        }
+
+        return key.substring(0, end).trim();
+    }
+
+    /**
+     * @return the places cached for the query, or null if there are none younger than the TTL
+     */
+    public synchronized List<Place> get(String query, long now) {
+        String key = normalize(query);
+
+        Entry entry = memory.get(key);
+        if (entry != null && isFresh(entry, now)) {
+            memoryHits++;
+            return entry.places;
+        }
+
+        if (entry == null) {
+            entry = read(key, now);
+            if (entry != null && isFresh(entry, now)) {
+                diskHits++;
+                return entry.places;
+            }
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return the places cached for the query however old they are, or null
+     */
+    public synchronized List<Place> getStale(String query) {
+        String key = normalize(query);
+
+        Entry entry = memory.get(key);
+        if (entry == null) {
+            entry = read(key, System.currentTimeMillis());
+        }
+
+        if (entry == null) {
+            return null;
+        }
+
+        staleHits++;
+        return entry.places;
+    }
+
+    /**
+     * Caches the geocoder's answer for a query. An empty list is a valid answer and is cached too,
+     * but only for the shorter empty TTL.
+     */
+    public synchronized void put(String query, List<Place> places, long now) {
+        String key = normalize(query);
+        Entry entry = new Entry(key, now, places);
+
+        memory.put(key, entry);
+        write(entry);
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+
+        File[] files = listFiles();
+        for (File file : files) {
+            file.delete();
+        }
+
+        diskBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return memoryHits + diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void writeStats(Writer writer) throws IOException {
+        long lookups = memoryHits + diskHits + misses;
+
+        writer.write("geocode cache: " + memoryHits + " memory hits, " + diskHits + " disk hits, "
+                + misses + " misses, " + staleHits + " stale");
+        if (lookups > 0) {
+            writer.write(String.format(Locale.US, ", %.0f%% hit rate", 100.0
+                    * (memoryHits + diskHits) / lookups));
+        }
+        writer.write("\n");
+        writer.flush();
+    }
+
+    private boolean isFresh(Entry entry, long now) {
+        return now - entry.time < (entry.places.isEmpty() ? emptyTtl : ttl);
+    }
+
+    private Entry read(String key, long now) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            // another query hashing to the same name
+            String query = in.readUTF();
+            if (!query.equals(key)) {
+                return null;
+            }
+
+            long time = in.readLong();
+            int count = in.readInt();
+            List<Place> places = new ArrayList<Place>(count);
+            for (int i = 0; i < count; i++) {
+                Place place = new Place();
+                place.latitude = in.readDouble();
+                place.longitude = in.readDouble();
+                place.lines = new String[in.readInt()];
+                for (int j = 0; j < place.lines.length; j++) {
+                    place.lines[j] = in.readUTF();
+                }
+                place.featureName = readString(in);
+                place.thoroughfare = readString(in);
+                place.locality = readString(in);
+                place.postalCode = readString(in);
+                place.countryCode = readString(in);
+
+                places.add(place);
+            }
+
+            // last modified is the recency used for eviction
+            file.setLastModified(now);
+
+            Entry entry = new Entry(key, time, places);
+            memory.put(key, entry);
+
+            return entry;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void write(Entry entry) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            for (File file : listFiles()) {
+                diskBytes += file.length();
+            }
+        }
+
+        File file = getFile(entry.query);
+        long previous = file.length();
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entry.query);
+            out.writeLong(entry.time);
+            out.writeInt(entry.places.size());
+            for (Place place : entry.places) {
+                out.writeDouble(place.latitude);
+                out.writeDouble(place.longitude);
+                out.writeInt(place.lines.length);
+                for (String line : place.lines) {
+                    out.writeUTF(line);
+                }
+                writeString(out, place.featureName);
+                writeString(out, place.thoroughfare);
+                writeString(out, place.locality);
+                writeString(out, place.postalCode);
+                writeString(out, place.countryCode);
+            }
+        } catch (IOException e) {
+            close(out);
+            out = null;
+            file.delete();
+        } finally {
+            close(out);
+        }
+
+        diskBytes += file.length() - previous;
+        if (diskBytes > maxDiskBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the store is under three quarters of its limit,
+     * so a full store isn't trimmed on every write
+     */
+    private void trim() {
+        File[] files = listFiles();
+        final long[] modified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+        }
+
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return modified[lhs] < modified[rhs] ? -1 : modified[lhs] > modified[rhs] ? 1
+                        : 0;
+            }
+        });
+
+        long target = maxDiskBytes * 3 / 4;
+        for (int i = 0; i < order.length && diskBytes > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> result = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                result.add(file);
+            }
+        }
+
+        return result.toArray(new File[result.size()]);
+    }
+
+    private File getFile(String key) {
+        return new File(dir, Integer.toHexString(key.hashCode()) + SUFFIX);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+}
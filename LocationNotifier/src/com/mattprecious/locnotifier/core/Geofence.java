@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * A circular region around a destination, stored in E6 coordinates like the rest of the app.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class Geofence {
+    /** Test raw fixes against this geofence */
+    public static final int FILTER_NONE = 0;
+
+    /** Test the smoothed output of the evaluator's {@link FixFilter} against this geofence */
+    public static final int FILTER_SMOOTHED = 1;
+
+    private final long id;
+    private final int latitudeE6;
+    private final int longitudeE6;
+    private final float radius;
+    private final int filter;
+    private final float confidence;
+
+    public Geofence(long id, int latitudeE6, int longitudeE6, float radius) {
+        this(id, latitudeE6, longitudeE6, radius, FILTER_NONE);
+    }
+
+    public Geofence(long id, int latitudeE6, int longitudeE6, float radius, int filter) {
+        this(id, latitudeE6, longitudeE6, radius, filter, 0);
+    }
+
+    /**
+     * @param confidence
+     *            How sure we need to be, 0 to 1, that a fix is inside before it counts. 0 just
+     *            checks whether the center of the fix is inside.
+     */
+    public Geofence(long id, int latitudeE6, int longitudeE6, float radius, int filter,
+            float confidence) {
+        this.id = id;
+        this.latitudeE6 = latitudeE6;
+        this.longitudeE6 = longitudeE6;
+        this.radius = radius;
+        this.filter = filter;
+        this.confidence = confidence;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getLatitudeE6() {
+        return latitudeE6;
+    }
+
+    public int getLongitudeE6() {
+        return longitudeE6;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds every active geofence in a uniform grid keyed on E6 coordinates. Each geofence is filed
+ * under every cell its bounding box touches, so a fix only has to look at the geofences in the
+ * single cell it falls into.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class GeofenceRegistry {
+    // 0.01 degrees, roughly 1.1km north-south
+    private static final int CELL_SIZE_E6 = 10000;
+
+    // geofences that would cover more cells than this go in a list that's checked on every fix
+    private static final int MAX_CELLS_PER_GEOFENCE = 64;
+
+    // how many rings of cells to search outward when looking for the nearest geofence
+    private static final int MAX_SEARCH_RINGS = 8;
+
+    private static final double METERS_PER_DEGREE = GeoMath.METERS_PER_DEGREE;
+
+    private final CellMap cells = new CellMap();
+    private final List<Geofence> oversized = new ArrayList<Geofence>();
+    private final Map<Long, Geofence> geofences = new HashMap<Long, Geofence>();
+
+    // results of the last nearest search
+    private Geofence nearest;
+    private float nearestDistance;
+
+    public void add(Geofence geofence) {
+        remove(geofence.getId());
+        geofences.put(geofence.getId(), geofence);
+
+        int[] bounds = getCellBounds(geofence);
+        int cellCount = (bounds[2] - bounds[0] + 1) * (bounds[3] - bounds[1] + 1);
+
+        if (cellCount > MAX_CELLS_PER_GEOFENCE) {
+            oversized.add(geofence);
+            return;
+        }
+
+        for (int cellLat = bounds[0]; cellLat <= bounds[2]; cellLat++) {
+            for (int cellLng = bounds[1]; cellLng <= bounds[3]; cellLng++) {
+                long key = getKey(cellLat, cellLng);
+
+                List<Geofence> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<Geofence>();
+                    cells.put(key, cell);
+                }
+
+                cell.add(geofence);
+            }
+        }
+    }
+
+    public void remove(long id) {
+        Geofence geofence = geofences.remove(id);
+        if (geofence == null) {
+            return;
+        }
+
+        if (oversized.remove(geofence)) {
+            return;
+        }
+
+        int[] bounds = getCellBounds(geofence);
+        for (int cellLat = bounds[0]; cellLat <= bounds[2]; cellLat++) {
+            for (int cellLng = bounds[1]; cellLng <= bounds[3]; cellLng++) {
+                long key = getKey(cellLat, cellLng);
+
+                List<Geofence> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(geofence);
+
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        oversized.clear();
+        geofences.clear();
+    }
+
+    public int size() {
+        return geofences.size();
+    }
+
+    public Geofence get(long id) {
+        return geofences.get(id);
+    }
+
+    /**
+     * Returns the geofences that could contain the given point. The caller still needs to check
+     * the distance against each one.
+     */
+    public List<Geofence> getCandidates(int latitudeE6, int longitudeE6) {
+        List<Geofence> cell = cells.get(getKey(getCell(latitudeE6), getCell(longitudeE6)));
+        return (cell == null) ? Collections.<Geofence> emptyList() : cell;
+    }
+
+    /**
+     * Finds the first geofence that contains the given fix
+     * 
+     * @return the containing geofence, or null if the fix isn't inside any of them
+     */
+    public Geofence findContaining(Fix fix) {
+        return findContaining(fix, fix);
+    }
+
+    /**
+     * Finds the first geofence that contains the given fix, testing geofences set to
+     * {@link Geofence#FILTER_SMOOTHED} against the smoothed fix instead
+     * 
+     * @return the containing geofence, or null if the fix isn't inside any of them
+     */
+    public Geofence findContaining(Fix raw, Fix smoothed) {
+        int rawCellLat = getCell(raw.getLatitudeE6());
+        int rawCellLng = getCell(raw.getLongitudeE6());
+
+        Geofence geofence = findContaining(cells.get(getKey(rawCellLat, rawCellLng)), raw,
+                smoothed);
+        if (geofence != null) {
+            return geofence;
+        }
+
+        if (smoothed != raw) {
+            int smoothedCellLat = getCell(smoothed.getLatitudeE6());
+            int smoothedCellLng = getCell(smoothed.getLongitudeE6());
+
+            if (smoothedCellLat != rawCellLat || smoothedCellLng != rawCellLng) {
+                geofence = findContaining(cells.get(getKey(smoothedCellLat, smoothedCellLng)),
+                        raw, smoothed);
+                if (geofence != null) {
+                    return geofence;
+                }
+            }
+        }
+
+        return findContaining(oversized, raw, smoothed);
+    }
+
+    private static Geofence findContaining(List<Geofence> candidates, Fix raw, Fix smoothed) {
+        if (candidates == null) {
+            return null;
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Geofence geofence = candidates.get(i);
+            Fix fix = (geofence.getFilter() == Geofence.FILTER_SMOOTHED) ? smoothed : raw;
+
+            if (contains(geofence, fix)) {
+                return geofence;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the distance from the given fix to the edge of the closest geofence. Only the cells
+     * within {@link #MAX_SEARCH_RINGS} of the fix are searched, so if nothing is found there the
+     * distance those rings are sure to cover is returned as a lower bound.
+     * 
+     * @return the distance in meters, 0 if the fix is inside a geofence, or
+     *         {@link Float#MAX_VALUE} if there are no geofences
+     */
+    public float getDistanceToNearestEdge(Fix fix) {
+        if (geofences.isEmpty()) {
+            return Float.MAX_VALUE;
+        }
+
+        searchNearest(fix);
+
+        if (nearest == null) {
+            return getRingDistance(fix, MAX_SEARCH_RINGS + 1);
+        }
+
+        return Math.max(nearestDistance, 0);
+    }
+
+    /**
+     * Finds the geofence with the closest edge to the given fix, searching the same cells as
+     * {@link #getDistanceToNearestEdge(Fix)}
+     * 
+     * @return the closest geofence, or null if there isn't one nearby
+     */
+    public Geofence findNearest(Fix fix) {
+        searchNearest(fix);
+        return nearest;
+    }
+
+    private void searchNearest(Fix fix) {
+        nearest = null;
+        nearestDistance = Float.MAX_VALUE;
+
+        int centerLat = getCell(fix.getLatitudeE6());
+        int centerLng = getCell(fix.getLongitudeE6());
+
+        for (int ring = 0; ring <= MAX_SEARCH_RINGS; ring++) {
+            // nothing filed further out can have a closer edge than what's been found
+            if (nearest != null && nearestDistance <= getRingDistance(fix, ring)) {
+                break;
+            }
+
+            for (int cellLat = centerLat - ring; cellLat <= centerLat + ring; cellLat++) {
+                // only walk the border of the ring, the inside has already been searched
+                int step = (cellLat == centerLat - ring || cellLat == centerLat + ring) ? 1
+                        : Math.max(1, 2 * ring);
+
+                for (int cellLng = centerLng - ring; cellLng <= centerLng + ring; cellLng += step) {
+                    checkNearest(cells.get(getKey(cellLat, cellLng)), fix);
+                }
+            }
+        }
+
+        checkNearest(oversized, fix);
+    }
+
+    private void checkNearest(List<Geofence> candidates, Fix fix) {
+        if (candidates == null) {
+            return;
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Geofence geofence = candidates.get(i);
+            float distance = getDistanceToEdge(geofence, fix);
+
+            if (distance < nearestDistance) {
+                nearest = geofence;
+                nearestDistance = distance;
+            }
+        }
+    }
+
+    /**
+     * A geofence is filed under every cell its bounding box touches, which includes the cell
+     * holding the point of its edge closest to the fix. So a geofence not filed within the given
+     * ring has an edge at least this far away. Cells narrow east-west away from the equator, so
+     * the narrowest side of the ring is used.
+     * 
+     * @return the smallest distance in meters from the fix to a cell in the ring
+     */
+    private static float getRingDistance(Fix fix, int ring) {
+        if (ring <= 1) {
+            return 0;
+        }
+
+        double cellHeight = CELL_SIZE_E6 / 1E6 * METERS_PER_DEGREE;
+
+        // the poleward edge of the ring is where its cells are narrowest
+        double latitude = Math.min(90, Math.abs(fix.getLatitude()) + ring * CELL_SIZE_E6 / 1E6);
+        double cellWidth = cellHeight * Math.cos(Math.toRadians(latitude));
+
+        return (float) ((ring - 1) * Math.min(cellHeight, cellWidth));
+    }
+
+    private static boolean contains(Geofence geofence, Fix fix) {
+        float distance = GeoMath.distance(fix, geofence);
+
+        if (geofence.getConfidence() > 0) {
+            float probability = EntryProbability.inside(distance, geofence.getRadius(),
+                    fix.getAccuracy());
+            return probability >= geofence.getConfidence();
+        }
+
+        return distance <= geofence.getRadius();
+    }
+
+    private static float getDistanceToEdge(Geofence geofence, Fix fix) {
+        return GeoMath.distance(fix, geofence) - geofence.getRadius();
+    }
+
+    private static int[] getCellBounds(Geofence geofence) {
+        double latSpan = geofence.getRadius() / METERS_PER_DEGREE;
+
+        // longitude lines converge toward the poles, so widen the box accordingly
+        double cosLat = Math.cos(Math.toRadians(geofence.getLatitudeE6() / 1E6));
+        double lngSpan = (cosLat < 0.01) ? 360 : latSpan / cosLat;
+
+        int latSpanE6 = (int) Math.ceil(latSpan * 1E6);
+        int lngSpanE6 = (int) Math.min(Math.ceil(lngSpan * 1E6), 360E6);
+
+        return new int[] { getCell(geofence.getLatitudeE6() - latSpanE6),
+                getCell(geofence.getLongitudeE6() - lngSpanE6),
+                getCell(geofence.getLatitudeE6() + latSpanE6),
+                getCell(geofence.getLongitudeE6() + lngSpanE6), };
+    }
+
+    private static int getCell(int coordinateE6) {
+        // floor rather than truncate so negative coordinates land in the right cell
+        return (int) Math.floor((double) coordinateE6 / CELL_SIZE_E6);
+    }
+
+    private static long getKey(int cellLat, int cellLng) {
+        return ((long) cellLat << 32) | (cellLng & 0xffffffffL);
+    }
+
+    /**
+     * Cells keyed on a primitive long, in sorted arrays. Lookups are a binary search and don't
+     * box the key; the arrays only change when geofences are added or removed.
+     */
+    private static class CellMap {
+        private long[] keys = new long[16];
+        private Object[] values = new Object[16];
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        public List<Geofence> get(long key) {
+            int index = indexOf(key);
+            return (index < 0) ? null : (List<Geofence>) values[index];
+        }
+
+        public void put(long key, List<Geofence> value) {
+            int index = indexOf(key);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+
+            index = -index - 1;
+            if (size == keys.length) {
+                long[] newKeys = new long[size * 2];
+                Object[] newValues = new Object[size * 2];
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                System.arraycopy(values, 0, newValues, 0, size);
+                keys = newKeys;
+                values = newValues;
+            }
+
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            keys[index] = key;
+            values[index] = value;
+            size++;
+        }
+
+        public void remove(long key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return;
+            }
+
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            values[size] = null;
+        }
+
+        public void clear() {
+            for (int i = 0; i < size; i++) {
+                values[i] = null;
+            }
+
+            size = 0;
+        }
+
+        /**
+         * @return the key's index, or -(insertion point) - 1 if it isn't there
+         */
+        private int indexOf(long key) {
+            int low = 0;
+            int high = size - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else if (keys[mid] > key) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+    }
+}
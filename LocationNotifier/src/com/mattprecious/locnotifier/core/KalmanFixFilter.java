@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * Constant-velocity Kalman filter over position and velocity. North and east are filtered
+ * independently in meters on a flat plane around the first fix, which keeps each update to a
+ * handful of multiplies. The reported accuracy is used as the measurement noise, so a wild
+ * network fix barely moves an estimate built from good GPS fixes.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class KalmanFixFilter implements FixFilter {
+    /** Default acceleration noise in (m/s^2)^2, loose enough to follow a car */
+    public static final float DEFAULT_ACCELERATION_VARIANCE = 4;
+
+    // initial velocity variance, (10 m/s)^2
+    private static final double INITIAL_VELOCITY_VARIANCE = 100;
+
+    // start over if fixes are this far apart, the old estimate is meaningless by then
+    private static final long RESET_INTERVAL = 5 * 60 * 1000;
+
+    private final double accelerationVariance;
+
+    private final Axis north = new Axis();
+    private final Axis east = new Axis();
+
+    private final Fix estimate = new Fix();
+    private boolean initialized = false;
+
+    private double originLat;
+    private double originLng;
+    private double metersPerDegreeLng;
+    private long lastTime;
+
+    public KalmanFixFilter() {
+        this(DEFAULT_ACCELERATION_VARIANCE);
+    }
+
+    public KalmanFixFilter(float accelerationVariance) {
+        this.accelerationVariance = accelerationVariance;
+    }
+
+    @Override
+    public Fix filter(Fix fix) {
+        long dt = fix.getTime() - lastTime;
+        if (!initialized || dt < 0 || dt > RESET_INTERVAL) {
+            initialize(fix);
+            return estimate.set(fix);
+        }
+
+        double seconds = dt / 1000.0;
+        double variance = Math.max(fix.getAccuracy(), 1);
+        variance *= variance;
+
+        north.predict(seconds, accelerationVariance);
+        east.predict(seconds, accelerationVariance);
+
+        north.update((fix.getLatitude() - originLat) * GeoMath.METERS_PER_DEGREE, variance);
+        east.update((fix.getLongitude() - originLng) * metersPerDegreeLng, variance);
+
+        lastTime = fix.getTime();
+
+        estimate.set(fix.getTime(), originLat + north.position / GeoMath.METERS_PER_DEGREE,
+                originLng + east.position / metersPerDegreeLng,
+                (float) Math.sqrt((north.p00 + east.p00) / 2), fix.getProvider());
+        estimate.setSpeed((float) Math.sqrt(north.velocity * north.velocity + east.velocity
+                * east.velocity));
+        estimate.setBearing((float) ((Math.toDegrees(Math.atan2(east.velocity, north.velocity))
+                + 360) % 360));
+
+        return estimate;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+
+    private void initialize(Fix fix) {
+        originLat = fix.getLatitude();
+        originLng = fix.getLongitude();
+        metersPerDegreeLng = GeoMath.METERS_PER_DEGREE
+                * Math.max(Math.cos(Math.toRadians(originLat)), 0.01);
+        lastTime = fix.getTime();
+
+        double variance = Math.max(fix.getAccuracy(), 1);
+        variance *= variance;
+
+        north.initialize(variance);
+        east.initialize(variance);
+
+        initialized = true;
+    }
+
+    private static class Axis {
+        private double position;
+        private double velocity;
+
+        // covariance, p01 == p10 so only one is kept
+        private double p00;
+        private double p01;
+        private double p11;
+
+        private void initialize(double variance) {
+            position = 0;
+            velocity = 0;
+            p00 = variance;
+            p01 = 0;
+            p11 = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        private void predict(double dt, double accelerationVariance) {
+            position += velocity * dt;
+
+            double dt2 = dt * dt;
+            double dt3 = dt2 * dt;
+
+            p00 += dt * (2 * p01 + dt * p11) + accelerationVariance * dt3 * dt / 4;
+            p01 += dt * p11 + accelerationVariance * dt3 / 2;
+            p11 += accelerationVariance * dt2;
+        }
+
+        private void update(double measurement, double variance) {
+            double residual = measurement - position;
+            double s = p00 + variance;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+
+            position += k0 * residual;
+            velocity += k1 * residual;
+
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counters and latency histograms for the stages between a fix arriving and the alert going
+ * out. Everything is preallocated, so recording doesn't allocate and is safe from the location
+ * callback. Fixes are counted by provider, accuracy bucket and the decision made about them, and
+ * each stage's latency is kept per provider and accuracy bucket of the fix it was for, since a
+ * coarse network fix and a tight GPS fix take very different paths through the pipeline.
+ * 
+ * Histograms bucket by powers of two of microseconds, so percentiles are upper bounds accurate to
+ * a factor of two, which is plenty for telling a millisecond from a second.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class PipelineMetrics {
+    /** Age of a fix when it reached the listener */
+    public static final int STAGE_RECEIPT = 0;
+    /** Time spent deciding whether a fix is better and inside a geofence */
+    public static final int STAGE_FILTER = 1;
+    /** From handing a distance to the main thread until the notification shows it */
+    public static final int STAGE_NOTIFICATION = 2;
+    /**
+     * From receiving the fix that triggered until NotificationAction posts the arrival
+     * notification. Texts and webhooks go out after and aren't counted.
+     */
+    public static final int STAGE_ALERT = 3;
+
+    private static final String[] STAGE_NAMES = { "receipt", "filter", "notification", "alert", };
+
+    // upper bounds of each accuracy bucket in meters, the last bucket takes everything over
+    private static final float[] ACCURACY_BUCKETS = { 10, 50, 200, 1000, };
+
+    private static final int PROVIDERS = 4;
+    private static final int DECISIONS = 3;
+
+    // indexed by stage, provider and accuracy bucket
+    private final Histogram[][][] histograms;
+    private final long[] fixCounts = new long[PROVIDERS * (ACCURACY_BUCKETS.length + 1)
+            * DECISIONS];
+
+    public PipelineMetrics() {
+        histograms = new Histogram[STAGE_NAMES.length][PROVIDERS][ACCURACY_BUCKETS.length + 1];
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            for (int provider = 0; provider < PROVIDERS; provider++) {
+                for (int bucket = 0; bucket <= ACCURACY_BUCKETS.length; bucket++) {
+                    histograms[stage][provider][bucket] = new Histogram();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param provider
+     *            Provider of the fix the stage was handling
+     * @param accuracy
+     *            Accuracy of that fix in meters
+     */
+    public void recordLatency(int stage, int provider, float accuracy, long nanos) {
+        histograms[stage][provider][getAccuracyBucket(accuracy)].record(nanos);
+    }
+
+    /**
+     * @param decision
+     *            One of the {@link TriggerEvaluator} results
+     */
+    public synchronized void recordFix(int provider, float accuracy, int decision) {
+        fixCounts[getIndex(provider, getAccuracyBucket(accuracy), decision)]++;
+    }
+
+    public Histogram getHistogram(int stage, int provider, int accuracyBucket) {
+        return histograms[stage][provider][accuracyBucket];
+    }
+
+    public synchronized long getFixCount(int provider, int accuracyBucket, int decision) {
+        return fixCounts[getIndex(provider, accuracyBucket, decision)];
+    }
+
+    public static int getAccuracyBucket(float accuracy) {
+        for (int i = 0; i < ACCURACY_BUCKETS.length; i++) {
+            if (accuracy <= ACCURACY_BUCKETS[i]) {
+                return i;
+            }
+        }
+
+        return ACCURACY_BUCKETS.length;
+    }
+
+    /**
+     * Writes a plain text report of every stage, overall and for each provider and accuracy
+     * bucket it saw, and every non-zero fix count
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("stage        provider  accuracy  count     p50 us     p90 us     p99 us"
+                + "     max us\n");
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            Histogram total = new Histogram();
+            for (int provider = 0; provider < PROVIDERS; provider++) {
+                for (int bucket = 0; bucket <= ACCURACY_BUCKETS.length; bucket++) {
+                    total.add(histograms[stage][provider][bucket]);
+                }
+            }
+
+            writeHistogram(writer, STAGE_NAMES[stage], "all", "all", total);
+
+            for (int provider = 0; provider < PROVIDERS; provider++) {
+                for (int bucket = 0; bucket <= ACCURACY_BUCKETS.length; bucket++) {
+                    Histogram histogram = histograms[stage][provider][bucket];
+                    if (histogram.getCount() > 0) {
+                        writeHistogram(writer, "", Trace.getProviderName(provider),
+                                getAccuracyBucketName(bucket), histogram);
+                    }
+                }
+            }
+        }
+
+        writer.write("\nprovider  accuracy   rejected   accepted  triggered\n");
+        for (int provider = 0; provider < PROVIDERS; provider++) {
+            for (int bucket = 0; bucket <= ACCURACY_BUCKETS.length; bucket++) {
+                long rejected = getFixCount(provider, bucket, TriggerEvaluator.RESULT_REJECTED);
+                long accepted = getFixCount(provider, bucket, TriggerEvaluator.RESULT_ACCEPTED);
+                long triggered = getFixCount(provider, bucket, TriggerEvaluator.RESULT_TRIGGERED);
+
+                if (rejected + accepted + triggered == 0) {
+                    continue;
+                }
+
+                writer.write(String.format("%-9s %8s %10d %10d %10d\n",
+                        Trace.getProviderName(provider), getAccuracyBucketName(bucket), rejected,
+                        accepted, triggered));
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer writer, String stage, String provider,
+            String accuracy, Histogram histogram) throws IOException {
+        synchronized (histogram) {
+            writer.write(String.format("%-12s %-9s %-8s %6d %10d %10d %10d %10d\n", stage,
+                    provider, accuracy, histogram.getCount(), histogram.getPercentile(0.5),
+                    histogram.getPercentile(0.9), histogram.getPercentile(0.99),
+                    histogram.getMax() / 1000));
+        }
+    }
+
+    private static String getAccuracyBucketName(int bucket) {
+        if (bucket == ACCURACY_BUCKETS.length) {
+            return ">" + (int) ACCURACY_BUCKETS[bucket - 1] + "m";
+        }
+
+        return "<=" + (int) ACCURACY_BUCKETS[bucket] + "m";
+    }
+
+    private static int getIndex(int provider, int accuracyBucket, int decision) {
+        return (provider * (ACCURACY_BUCKETS.length + 1) + accuracyBucket) * DECISIONS + decision;
+    }
+
+    public static class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long max;
+
+        public synchronized void record(long nanos) {
+            long micros = Math.max(nanos / 1000, 0);
+
+            // bucket i holds everything under 2^i microseconds
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        /**
+         * Adds everything recorded in another histogram to this one
+         */
+        public void add(Histogram other) {
+            long[] otherBuckets = new long[BUCKETS];
+            long otherCount;
+            long otherMax;
+
+            synchronized (other) {
+                System.arraycopy(other.buckets, 0, otherBuckets, 0, BUCKETS);
+                otherCount = other.count;
+                otherMax = other.max;
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    buckets[i] += otherBuckets[i];
+                }
+
+                count += otherCount;
+                max = Math.max(max, otherMax);
+            }
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the longest latency recorded in nanoseconds
+         */
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * @param fraction
+         *            Between 0 and 1
+         * @return upper bound in microseconds of the bucket holding the given percentile, or 0 if
+         *         nothing has been recorded
+         */
+        public synchronized long getPercentile(double fraction) {
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+
+            return 0;
+        }
+    }
+}
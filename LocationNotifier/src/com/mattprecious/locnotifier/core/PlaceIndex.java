@@ -0,0 +1,660 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An offline gazetteer for looking up places by name prefix without a network connection.
+ * 
+ * Names are normalized to lower case letters and digits separated by single spaces. The keys are
+ * sorted and stored back to back in one char array, so every key starting with a prefix is a
+ * contiguous range found with two binary searches. This answers the same queries as a prefix trie
+ * for a fraction of the memory, since a trie needs a node per character. Display names,
+ * coordinates and populations live in primitive arrays indexed by position.
+ * 
+ * Matches are ranked by population and, when a location is given, by distance from it. Every
+ * match is ranked, but entries are also grouped in blocks of {@link #BLOCK_SIZE} with the largest
+ * population in each, so a search can skip whole blocks that couldn't make the results.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class PlaceIndex {
+    private static final int MAGIC = 0x4c4e5049; // LNPI
+    private static final int VERSION = 1;
+
+    // entries per block when tracking the largest population of each
+    private static final int BLOCK_SIZE = 64;
+
+    // ranges this small are insertion sorted when building
+    private static final int INSERTION_SORT_SIZE = 12;
+
+    // GeoNames dump columns
+    private static final int GEONAMES_NAME = 1;
+    private static final int GEONAMES_ASCII_NAME = 2;
+    private static final int GEONAMES_LATITUDE = 4;
+    private static final int GEONAMES_LONGITUDE = 5;
+    private static final int GEONAMES_POPULATION = 14;
+
+    public static class Result {
+        public String name;
+        public double latitude;
+        public double longitude;
+        public int population;
+        /** Meters from the location searched around, or NaN if none was given */
+        public double distance;
+        public float score;
+    }
+
+    /**
+     * Collects entries and sorts them into an index
+     */
+    public static class Builder {
+        private final List<String> keys = new ArrayList<String>();
+        private final List<String> names = new ArrayList<String>();
+        private int[] latitudes = new int[16];
+        private int[] longitudes = new int[16];
+        private int[] populations = new int[16];
+
+        /**
+         * @param key
+         *            Name to match against, normalized here. The display name is used if null.
+         */
+        public Builder add(String name, String key, double latitude, double longitude,
+                int population) {
+            String normalized = normalize(key == null ? name : key);
+            if (normalized.length() == 0) {
+                return this;
+            }
+
+            int size = keys.size();
+            if (size == latitudes.length) {
+                latitudes = grow(latitudes);
+                longitudes = grow(longitudes);
+                populations = grow(populations);
+            }
+
+            keys.add(normalized);
+            names.add(name);
+            latitudes[size] = GeoMath.toE6(latitude);
+            longitudes[size] = GeoMath.toE6(longitude);
+            populations[size] = population;
+
+            return this;
+        }
+
+        public int size() {
+            return keys.size();
+        }
+
+        // Arrays.copyOf needs API 9
+        private static int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+
+        public PlaceIndex build() {
+            int size = keys.size();
+
+            // sort by key, the most populous first within a key
+            String[] keyArray = keys.toArray(new String[size]);
+
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+
+            sortByKey(order, keyArray, 0, size, 0);
+
+            // entries sharing a key are packed as population and entry so one sort orders them,
+            // the same way search() sorts blocks
+            long[] packed = new long[16];
+            int start = 0;
+            while (start < size) {
+                int end = start + 1;
+                while (end < size && keyArray[order[end]].equals(keyArray[order[start]])) {
+                    end++;
+                }
+
+                int count = end - start;
+                if (count > 1) {
+                    if (count > packed.length) {
+                        packed = new long[count];
+                    }
+
+                    for (int i = 0; i < count; i++) {
+                        packed[i] = ((long) populations[order[start + i]] << 32) | order[start + i];
+                    }
+
+                    Arrays.sort(packed, 0, count);
+
+                    for (int i = 0; i < count; i++) {
+                        order[end - 1 - i] = (int) packed[i];
+                    }
+                }
+
+                start = end;
+            }
+
+            int keyLength = 0;
+            int nameLength = 0;
+            for (int i = 0; i < size; i++) {
+                keyLength += keys.get(i).length();
+                nameLength += names.get(i).length();
+            }
+
+            PlaceIndex index = new PlaceIndex(size, keyLength, nameLength);
+            int keyOffset = 0;
+            int nameOffset = 0;
+            for (int i = 0; i < size; i++) {
+                int entry = order[i];
+
+                String key = keyArray[entry];
+                key.getChars(0, key.length(), index.keyChars, keyOffset);
+                keyOffset += key.length();
+                index.keyOffsets[i + 1] = keyOffset;
+
+                String name = names.get(entry);
+                name.getChars(0, name.length(), index.nameChars, nameOffset);
+                nameOffset += name.length();
+                index.nameOffsets[i + 1] = nameOffset;
+
+                index.latitudes[i] = latitudes[entry];
+                index.longitudes[i] = longitudes[entry];
+                index.populations[i] = populations[entry];
+            }
+
+            index.fillBlockPopulations();
+            return index;
+        }
+
+        /**
+         * Sorts a range of entries by key with a three-way radix quicksort. Each pass partitions
+         * on one character, so keys sharing a long prefix aren't compared from the start over
+         * and over the way a comparison sort would.
+         */
+        private static void sortByKey(int[] order, String[] keys, int low, int high, int depth) {
+            while (high - low > INSERTION_SORT_SIZE) {
+                int pivot = charAt(keys[order[(low + high) >>> 1]], depth);
+
+                // [low, lt) below the pivot, [lt, i) equal, (gt, high) above
+                int lt = low;
+                int gt = high - 1;
+                int i = low;
+                while (i <= gt) {
+                    int c = charAt(keys[order[i]], depth);
+                    if (c < pivot) {
+                        swap(order, lt++, i++);
+                    } else if (c > pivot) {
+                        swap(order, i, gt--);
+                    } else {
+                        i++;
+                    }
+                }
+
+                sortByKey(order, keys, low, lt, depth);
+                sortByKey(order, keys, gt + 1, high, depth);
+
+                // keys that ended here are all equal
+                if (pivot < 0) {
+                    return;
+                }
+
+                low = lt;
+                high = gt + 1;
+                depth++;
+            }
+
+            for (int i = low + 1; i < high; i++) {
+                int entry = order[i];
+                int j = i;
+                while (j > low && keys[order[j - 1]].compareTo(keys[entry]) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+
+                order[j] = entry;
+            }
+        }
+
+        /**
+         * @return the character at the given position, or -1 past the end of the key
+         */
+        private static int charAt(String key, int position) {
+            return position < key.length() ? key.charAt(position) : -1;
+        }
+
+        private static void swap(int[] array, int i, int j) {
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    private final int size;
+    private final char[] keyChars;
+    private final int[] keyOffsets;
+    private final char[] nameChars;
+    private final int[] nameOffsets;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final int[] populations;
+
+    // largest population in each block of entries, not stored since it's quick to rebuild
+    private final int[] blockPopulations;
+
+    private PlaceIndex(int size, int keyLength, int nameLength) {
+        this.size = size;
+        keyChars = new char[keyLength];
+        keyOffsets = new int[size + 1];
+        nameChars = new char[nameLength];
+        nameOffsets = new int[size + 1];
+        latitudes = new int[size];
+        longitudes = new int[size];
+        populations = new int[size];
+        blockPopulations = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    }
+
+    private void fillBlockPopulations() {
+        for (int i = 0; i < size; i++) {
+            int block = i / BLOCK_SIZE;
+            blockPopulations[block] = Math.max(blockPopulations[block], populations[i]);
+        }
+    }
+
+    /**
+     * Lower case letters and digits, with everything else collapsed to single spaces
+     */
+    public static String normalize(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        StringBuilder builder = new StringBuilder(lower.length());
+
+        boolean space = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && builder.length() > 0) {
+                    builder.append(' ');
+                }
+
+                builder.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Reads a gazetteer, one place per line. Tab separated lines are taken to be a GeoNames dump
+     * (name, ASCII name, coordinates and population are used). Otherwise lines are CSV of name,
+     * latitude, longitude and an optional population; the name may be quoted. Lines that can't be
+     * parsed, including a header, are skipped.
+     */
+    public static PlaceIndex importGazetteer(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Builder builder = new Builder();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            try {
+                if (line.indexOf('\t') >= 0) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length <= GEONAMES_POPULATION) {
+                        continue;
+                    }
+
+                    builder.add(fields[GEONAMES_NAME], fields[GEONAMES_ASCII_NAME],
+                            Double.parseDouble(fields[GEONAMES_LATITUDE]),
+                            Double.parseDouble(fields[GEONAMES_LONGITUDE]),
+                            parsePopulation(fields[GEONAMES_POPULATION]));
+                } else {
+                    String name;
+                    String rest;
+                    if (line.startsWith("\"")) {
+                        int end = line.indexOf("\",", 1);
+                        if (end < 0) {
+                            continue;
+                        }
+
+                        name = line.substring(1, end).replace("\"\"", "\"");
+                        rest = line.substring(end + 2);
+                    } else {
+                        int end = line.indexOf(',');
+                        if (end < 0) {
+                            continue;
+                        }
+
+                        name = line.substring(0, end);
+                        rest = line.substring(end + 1);
+                    }
+
+                    String[] fields = rest.split(",");
+                    if (fields.length < 2) {
+                        continue;
+                    }
+
+                    builder.add(name.trim(), null, Double.parseDouble(fields[0].trim()),
+                            Double.parseDouble(fields[1].trim()),
+                            fields.length > 2 ? parsePopulation(fields[2]) : 0);
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+
+        return builder.build();
+    }
+
+    public static PlaceIndex load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                64 * 1024));
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a place index: " + file);
+            }
+
+            int size = in.readInt();
+            PlaceIndex index = new PlaceIndex(size, in.readInt(), in.readInt());
+
+            readChars(in, index.keyChars);
+            readInts(in, index.keyOffsets);
+            readChars(in, index.nameChars);
+            readInts(in, index.nameOffsets);
+            readInts(in, index.latitudes);
+            readInts(in, index.longitudes);
+            readInts(in, index.populations);
+
+            index.fillBlockPopulations();
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                file), 64 * 1024));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(keyChars.length);
+            out.writeInt(nameChars.length);
+
+            for (char c : keyChars) {
+                out.writeChar(c);
+            }
+            writeInts(out, keyOffsets);
+            for (char c : nameChars) {
+                out.writeChar(c);
+            }
+            writeInts(out, nameOffsets);
+            writeInts(out, latitudes);
+            writeInts(out, longitudes);
+            writeInts(out, populations);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes held by the index's arrays
+     */
+    public long getMemoryBytes() {
+        return 2L * (keyChars.length + nameChars.length) + 4L
+                * (keyOffsets.length + nameOffsets.length + 3L * size + blockPopulations.length);
+    }
+
+    /**
+     * Finds the places whose name starts with the query, best first
+     * 
+     * @param latitude
+     *            Where to bias results towards, or NaN for no bias
+     * @param max
+     *            Most results to return
+     */
+    public List<Result> search(String query, double latitude, double longitude, int max) {
+        List<Result> results = new ArrayList<Result>(max);
+
+        String prefix = normalize(query);
+        if (prefix.length() == 0 || max <= 0) {
+            return results;
+        }
+
+        int start = lowerBound(prefix);
+        int end = upperBound(prefix, start);
+
+        boolean biased = !Double.isNaN(latitude) && !Double.isNaN(longitude);
+
+        // best entries so far, sorted by score descending
+        int[] best = new int[max];
+        float[] bestScores = new float[max];
+        double[] bestDistances = new double[max];
+        int count = 0;
+
+        // visit the blocks the range touches most populous first, so the results fill up with
+        // strong entries early and the weaker blocks can be skipped, packed as population and
+        // block number so one sort does it
+        int firstBlock = start / BLOCK_SIZE;
+        int blockCount = (end == start) ? 0 : (end - 1) / BLOCK_SIZE - firstBlock + 1;
+        long[] blocks = new long[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = ((long) blockPopulations[firstBlock + i] << 32) | (firstBlock + i);
+        }
+
+        Arrays.sort(blocks);
+
+        for (int b = blockCount - 1; b >= 0; b--) {
+            // the best any entry in the block could score is an exact match right here. If that
+            // can't beat the worst result kept, neither can this block or any after it.
+            if (count == max && getScore((int) (blocks[b] >>> 32), true) <= bestScores[max - 1]) {
+                break;
+            }
+
+            int block = (int) blocks[b];
+            int blockEnd = Math.min((block + 1) * BLOCK_SIZE, end);
+
+            for (int i = Math.max(block * BLOCK_SIZE, start); i < blockEnd; i++) {
+                float score = getScore(populations[i],
+                        keyOffsets[i + 1] - keyOffsets[i] == prefix.length());
+
+                double distance = Double.NaN;
+                if (biased) {
+                    // the latitude difference alone is a cheap lower bound on the distance
+                    if (count == max) {
+                        double north = Math.abs(GeoMath.fromE6(latitudes[i]) - latitude)
+                                * GeoMath.METERS_PER_DEGREE;
+                        if (score - 2 * Math.log10(1 + north / 10000) <= bestScores[max - 1]) {
+                            continue;
+                        }
+                    }
+
+                    distance = GeoMath.distance(latitude, longitude,
+                            GeoMath.fromE6(latitudes[i]), GeoMath.fromE6(longitudes[i]));
+
+                    // a place 10km away loses ~0.6, 1000km away ~4
+                    score -= 2 * Math.log10(1 + distance / 10000);
+                }
+
+                if (count == max && score <= bestScores[max - 1]) {
+                    continue;
+                }
+
+                int position = count < max ? count++ : max - 1;
+                while (position > 0 && bestScores[position - 1] < score) {
+                    best[position] = best[position - 1];
+                    bestScores[position] = bestScores[position - 1];
+                    bestDistances[position] = bestDistances[position - 1];
+                    position--;
+                }
+
+                best[position] = i;
+                bestScores[position] = score;
+                bestDistances[position] = distance;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int entry = best[i];
+
+            Result result = new Result();
+            result.name = new String(nameChars, nameOffsets[entry], nameOffsets[entry + 1]
+                    - nameOffsets[entry]);
+            result.latitude = GeoMath.fromE6(latitudes[entry]);
+            result.longitude = GeoMath.fromE6(longitudes[entry]);
+            result.population = populations[entry];
+            result.distance = bestDistances[i];
+            result.score = bestScores[i];
+
+            results.add(result);
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the score before any distance penalty
+     */
+    private static float getScore(int population, boolean exact) {
+        float score = (float) Math.log10(population + 10);
+        if (exact) {
+            score += 1;
+        }
+
+        return score;
+    }
+
+    /**
+     * @return the first entry whose key is not less than the prefix
+     */
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the first entry at or after start whose key doesn't start with the prefix
+     */
+    private int upperBound(String prefix, int start) {
+        int low = start;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startsWith(mid, prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private int compareKey(int entry, String prefix) {
+        int offset = keyOffsets[entry];
+        int length = keyOffsets[entry + 1] - offset;
+        int common = Math.min(length, prefix.length());
+
+        for (int i = 0; i < common; i++) {
+            int difference = keyChars[offset + i] - prefix.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return length - prefix.length();
+    }
+
+    private boolean startsWith(int entry, String prefix) {
+        int offset = keyOffsets[entry];
+        if (keyOffsets[entry + 1] - offset < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (keyChars[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int parsePopulation(String value) {
+        value = value.trim();
+        if (value.length() == 0) {
+            return 0;
+        }
+
+        long population = Long.parseLong(value);
+        return (int) Math.min(population, Integer.MAX_VALUE);
+    }
+
+    private static void readChars(DataInputStream in, char[] chars) throws IOException {
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+    }
+
+    private static void readInts(DataInputStream in, int[] ints) throws IOException {
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        for (int value : ints) {
+            out.writeInt(value);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how often LocationService should ask for fixes. The further the user is from the
+ * nearest geofence edge in time, the longer the interval and distance handed to
+ * requestLocationUpdates. Time comes from the {@link EtaEstimator} when the user is heading
+ * toward the geofence, otherwise from the distance at the measured speed, so sampling only gets
+ * dense when arrival could actually be close. A user who's standing still is assumed to walk.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class SamplingScheduler {
+    // slowest speed assumed when there's no ETA, roughly walking pace
+    private static final float FALLBACK_SPEED = 1.4f;
+
+    private static final int MAX_CHANGES = 50;
+
+    // seconds until the edge is reached, and the tier to use below that
+    private static final long[] TIER_TIME_TO_EDGE = { 30, 120, 300, 900, 2700, };
+    private static final long[] TIER_MIN_TIME = { 0, 5000, 15000, 60000, 180000, 300000, };
+    private static final float[] TIER_MIN_DISTANCE = { 0, 25, 100, 250, 500, 1000, };
+
+    private int tier = 0;
+    private int pendingTier = -1;
+
+    private int fixesHandled = 0;
+    private final List<String> changes = new ArrayList<String>();
+
+    /**
+     * Count a fix delivered by the location manager, whether or not it was used
+     */
+    public void onFix() {
+        fixesHandled++;
+    }
+
+    /**
+     * Re-evaluate the sampling tier with a newly accepted fix
+     * 
+     * @param distanceToEdge
+     *            Distance in meters from the fix to the nearest geofence edge
+     * @param eta
+     *            Predicted seconds until that edge is reached, or {@link EtaEstimator#UNKNOWN}
+     * @param speed
+     *            Measured speed in meters per second in any direction, or 0 if unknown. Used
+     *            when there's no ETA, since the user could turn toward the edge at any time.
+     * @return true if the listeners need to be registered again with the new interval
+     */
+    public boolean update(float distanceToEdge, long eta, float speed) {
+        float pace = Math.max(speed, FALLBACK_SPEED);
+        long timeToEdge = (eta == EtaEstimator.UNKNOWN) ? (long) (distanceToEdge / pace) : eta;
+
+        int newTier = TIER_TIME_TO_EDGE.length;
+        for (int i = 0; i < TIER_TIME_TO_EDGE.length; i++) {
+            if (timeToEdge < TIER_TIME_TO_EDGE[i]) {
+                newTier = i;
+                break;
+            }
+        }
+
+        if (newTier == tier) {
+            pendingTier = -1;
+            return false;
+        }
+
+        // tighten right away, but only back off once two fixes in a row agree
+        if (newTier > tier && pendingTier != newTier) {
+            pendingTier = newTier;
+            return false;
+        }
+
+        String reason = String.format("tier %d -> %d: %.0fm to edge, %ds %s", tier, newTier,
+                distanceToEdge, timeToEdge, (eta == EtaEstimator.UNKNOWN) ? String.format(
+                        "at %.1fm/s", pace) : "predicted");
+
+        if (changes.size() == MAX_CHANGES) {
+            changes.remove(0);
+        }
+
+        changes.add(reason);
+
+        tier = newTier;
+        pendingTier = -1;
+
+        return true;
+    }
+
+    public long getMinTime() {
+        return TIER_MIN_TIME[tier];
+    }
+
+    public float getMinDistance() {
+        return TIER_MIN_DISTANCE[tier];
+    }
+
+    public int getFixesHandled() {
+        return fixesHandled;
+    }
+
+    /**
+     * @return the reason for the most recent interval change, or null if there hasn't been one
+     */
+    public String getLastChange() {
+        return changes.isEmpty() ? null : changes.get(changes.size() - 1);
+    }
+
+    /**
+     * @return the reasons for the most recent interval changes, oldest first
+     */
+    public List<String> getChanges() {
+        return changes;
+    }
+}
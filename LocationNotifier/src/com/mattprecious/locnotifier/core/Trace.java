@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An ordered sequence of fixes, either recorded or generated. Recorded traces are plain CSV, one
+ * fix per line: time in ms, latitude, longitude, accuracy in meters and provider ("gps",
+ * "network" or "passive"). Blank lines and lines starting with # are skipped.
+ * 
+ * Synthetic traces also carry the noise-free path the fixes were generated from, so replays can
+ * tell a real arrival from a noisy one.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class Trace {
+    private final List<Fix> fixes = new ArrayList<Fix>();
+    private Trace truth;
+
+    public void add(Fix fix) {
+        fixes.add(fix);
+    }
+
+    public Fix get(int index) {
+        return fixes.get(index);
+    }
+
+    public int size() {
+        return fixes.size();
+    }
+
+    /**
+     * @return the true path, one entry per fix, or this trace if the true path isn't known
+     */
+    public Trace getTruth() {
+        return (truth == null) ? this : truth;
+    }
+
+    public static Trace read(Reader reader) throws IOException {
+        Trace trace = new Trace();
+        BufferedReader in = new BufferedReader(reader);
+
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split(",");
+            if (parts.length < 5) {
+                throw new IOException("Malformed fix on line " + lineNumber + ": " + line);
+            }
+
+            try {
+                trace.add(new Fix(Long.parseLong(parts[0].trim()),
+                        Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim()),
+                        Float.parseFloat(parts[3].trim()), parseProvider(parts[4].trim())));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed fix on line " + lineNumber + ": " + line);
+            }
+        }
+
+        return trace;
+    }
+
+    public void write(Writer writer) throws IOException {
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            writer.write(fix.getTime() + "," + fix.getLatitude() + "," + fix.getLongitude() + ","
+                    + fix.getAccuracy() + "," + getProviderName(fix.getProvider()) + "\n");
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Generates a straight-line trip toward a destination
+     * 
+     * @param startLat
+     *            Latitude of the start of the trip
+     * @param startLng
+     *            Longitude of the start of the trip
+     * @param endLat
+     *            Latitude of the end of the trip
+     * @param endLng
+     *            Longitude of the end of the trip
+     * @param speed
+     *            Travel speed in meters per second
+     * @param fixRate
+     *            Fixes per second
+     * @param gpsFraction
+     *            Fraction of fixes, 0 to 1, that come from GPS rather than the network provider
+     * @param seed
+     *            Seed for the accuracy and position noise so traces are repeatable
+     */
+    public static Trace synthesize(double startLat, double startLng, double endLat,
+            double endLng, float speed, float fixRate, float gpsFraction, long seed) {
+        Trace trace = new Trace();
+        trace.truth = new Trace();
+        Random random = new Random(seed);
+
+        float length = GeoMath.distance(startLat, startLng, endLat, endLng);
+        long interval = (long) (1000 / fixRate);
+        int count = Math.max(2, (int) (length / speed * fixRate) + 1);
+
+        for (int i = 0; i < count; i++) {
+            double progress = (double) i / (count - 1);
+
+            boolean gps = random.nextFloat() < gpsFraction;
+            float accuracy = gps ? 5 + random.nextFloat() * 15 : 50 + random.nextFloat() * 1450;
+
+            // scatter the reported position within the reported accuracy
+            double noise = random.nextGaussian() * accuracy / GeoMath.METERS_PER_DEGREE;
+            double angle = random.nextDouble() * 2 * Math.PI;
+
+            double trueLat = startLat + (endLat - startLat) * progress;
+            double trueLng = startLng + (endLng - startLng) * progress;
+
+            double lat = trueLat + noise * Math.sin(angle);
+            double lng = trueLng + noise * Math.cos(angle) / Math.cos(Math.toRadians(lat));
+
+            trace.truth.add(new Fix(i * interval, trueLat, trueLng, 0, Fix.PROVIDER_UNKNOWN));
+
+            Fix fix = new Fix(i * interval, lat, lng, accuracy, gps ? Fix.PROVIDER_GPS
+                    : Fix.PROVIDER_NETWORK);
+
+            if (gps) {
+                fix.setSpeed(speed);
+            }
+
+            trace.add(fix);
+        }
+
+        return trace;
+    }
+
+    public static int parseProvider(String name) {
+        if ("gps".equals(name)) {
+            return Fix.PROVIDER_GPS;
+        } else if ("network".equals(name)) {
+            return Fix.PROVIDER_NETWORK;
+        } else if ("passive".equals(name)) {
+            return Fix.PROVIDER_PASSIVE;
+        }
+
+        return Fix.PROVIDER_UNKNOWN;
+    }
+
+    public static String getProviderName(int provider) {
+        switch (provider) {
+            case Fix.PROVIDER_GPS:
+                return "gps";
+            case Fix.PROVIDER_NETWORK:
+                return "network";
+            case Fix.PROVIDER_PASSIVE:
+                return "passive";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * Runs a trace through a {@link TriggerEvaluator} as fast as possible and reports how the trigger
+ * behaved. Like LocationService, the replay stops at the first trigger.
+ * 
+ * Given a {@link TrackingStateMachine}, GPS fixes in the trace are dropped while the machine has
+ * GPS down, the way they'd never arrive on a device, and the result reports how long GPS was up.
+ * With the pre-stage on, fixes are ignored until one lands inside the
+ * {@link TrackingStateMachine#getPreStageRadius(float) pre-stage ring} of a geofence, standing in
+ * for the platform proximity alert LocationService waits on in low power mode.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class TraceReplayer {
+
+    public static class Result {
+        /** Fixes handed to the evaluator */
+        public int fixesProcessed;
+
+        /** Fixes the evaluator accepted as the new best fix */
+        public int fixesAccepted;
+
+        /** Trace time of the fix that triggered, or -1 if nothing triggered */
+        public long triggerTime = -1;
+
+        /** Trace time the true path first entered the geofence, or -1 if it never did */
+        public long entryTime = -1;
+
+        /** Whether the trigger fired while the true position was still outside every geofence */
+        public boolean falseTrigger;
+
+        /** Wall time spent in the evaluator */
+        public long elapsedNanos;
+
+        /** Trace time GPS was wanted, or -1 if the replay ran without a state machine */
+        public long gpsTime = -1;
+
+        /** Trace time from the first fix to the end of the replay */
+        public long trackingTime;
+
+        /**
+         * Trace time the pre-stage ring was entered and tracking started, or -1 if it never was
+         * or the replay ran without a pre-stage
+         */
+        public long escalationTime = -1;
+
+        public boolean isTriggered() {
+            return triggerTime >= 0;
+        }
+
+        /**
+         * @return milliseconds of trace time between entering and triggering, negative if the
+         *         trigger fired early, or -1 if either never happened
+         */
+        public long getLatency() {
+            if (triggerTime < 0 || entryTime < 0) {
+                return -1;
+            }
+
+            return triggerTime - entryTime;
+        }
+
+        public double getFixesPerSecond() {
+            return (elapsedNanos == 0) ? 0 : fixesProcessed * 1E9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "fixes=" + fixesProcessed + " accepted=" + fixesAccepted + " triggered="
+                    + isTriggered() + " latency=" + getLatency() + "ms falseTrigger="
+                    + falseTrigger
+                    + ((gpsTime < 0) ? "" : " gps=" + gpsTime + "/" + trackingTime + "ms")
+                    + ((escalationTime < 0) ? "" : " escalated=" + escalationTime);
+        }
+    }
+
+    private TraceReplayer() {
+    }
+
+    public static Result replay(Trace trace, GeofenceRegistry registry) {
+        return replay(trace, new TriggerEvaluator(registry));
+    }
+
+    public static Result replay(Trace trace, TriggerEvaluator evaluator) {
+        return replay(trace, evaluator, null);
+    }
+
+    /**
+     * @param tracking
+     *            Decides when GPS fixes get through, or null to pass every fix
+     */
+    public static Result replay(Trace trace, TriggerEvaluator evaluator,
+            TrackingStateMachine tracking) {
+        return replay(trace, evaluator, tracking, false);
+    }
+
+    /**
+     * @param tracking
+     *            Decides when GPS fixes get through, or null to pass every fix
+     * @param preStage
+     *            Whether to ignore fixes until the pre-stage ring is entered
+     */
+    public static Result replay(Trace trace, TriggerEvaluator evaluator,
+            TrackingStateMachine tracking, boolean preStage) {
+        Result result = new Result();
+        EtaEstimator etaEstimator = new EtaEstimator();
+        Trace truth = trace.getTruth();
+        GeofenceRegistry registry = evaluator.getRegistry();
+
+        for (int i = 0; i < truth.size(); i++) {
+            if (registry.findContaining(truth.get(i)) != null) {
+                result.entryTime = truth.get(i).getTime();
+                break;
+            }
+        }
+
+        long start = System.nanoTime();
+
+        Fix fix = null;
+        for (int i = 0; i < trace.size(); i++) {
+            fix = trace.get(i);
+
+            if (preStage && result.escalationTime < 0) {
+                Geofence nearest = registry.findNearest(fix);
+                if (nearest == null
+                        || GeoMath.distance(fix, nearest) > TrackingStateMachine
+                                .getPreStageRadius(nearest.getRadius())) {
+                    continue;
+                }
+
+                result.escalationTime = fix.getTime();
+            }
+
+            if (tracking != null && fix.getProvider() == Fix.PROVIDER_GPS
+                    && !tracking.isGpsWanted()) {
+                continue;
+            }
+
+            int decision = evaluator.evaluate(fix);
+            result.fixesProcessed++;
+
+            if (decision != TriggerEvaluator.RESULT_REJECTED) {
+                result.fixesAccepted++;
+            }
+
+            if (decision == TriggerEvaluator.RESULT_TRIGGERED) {
+                result.triggerTime = fix.getTime();
+                result.falseTrigger = registry.findContaining(truth.get(i)) == null;
+                break;
+            }
+
+            if (tracking != null) {
+                updateTracking(tracking, registry, etaEstimator, fix,
+                        decision == TriggerEvaluator.RESULT_ACCEPTED);
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+
+        if (tracking != null && fix != null) {
+            result.gpsTime = tracking.getGpsTime(fix.getTime());
+            result.trackingTime = tracking.getTrackingTime(fix.getTime());
+        }
+
+        return result;
+    }
+
+    /**
+     * Same as LocationService: every fix moves the state machine, since even one that lost out to
+     * the best fix says roughly where the user is, but only accepted fixes feed the ETA.
+     */
+    private static void updateTracking(TrackingStateMachine tracking, GeofenceRegistry registry,
+            EtaEstimator etaEstimator, Fix fix, boolean accepted) {
+        if (accepted) {
+            etaEstimator.update(fix);
+        }
+
+        Geofence nearest = registry.findNearest(fix);
+        if (nearest == null) {
+            tracking.update(fix.getTime(), registry.getDistanceToNearestEdge(fix), 0,
+                    fix.getAccuracy(), EtaEstimator.UNKNOWN);
+        } else {
+            tracking.update(fix.getTime(),
+                    Math.max(GeoMath.distance(fix, nearest) - nearest.getRadius(), 0),
+                    nearest.getRadius(), fix.getAccuracy(),
+                    accepted ? etaEstimator.getEta(fix, nearest) : EtaEstimator.UNKNOWN);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when GPS is worth powering. While the user is far from every geofence, network and
+ * passive fixes are enough to follow them; GPS only comes up inside an approach ring around the
+ * nearest geofence and goes back down if they move away again.
+ * 
+ * The ring reaches {@link #MIN_APPROACH_MARGIN} or one radius past the edge, whichever is larger,
+ * plus the accuracy of the fix, so a vague network fix brings GPS up sooner. Leaving needs the
+ * user to be {@link #EXIT_FACTOR} times further out than entering, so a fix wobbling on the ring
+ * doesn't toggle the radio.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class TrackingStateMachine {
+    /** No fix yet, GPS stays up so the first fix isn't held up waiting on the network */
+    public static final int STATE_UNKNOWN = 0;
+    /** Outside the approach ring, network and passive fixes only */
+    public static final int STATE_COARSE = 1;
+    /** Inside the approach ring, GPS is on */
+    public static final int STATE_FINE = 2;
+
+    private static final float MIN_APPROACH_MARGIN = 500;
+    private static final float EXIT_FACTOR = 1.5f;
+
+    // bring GPS up this many seconds before a predicted arrival regardless of distance
+    private static final long APPROACH_ETA = 180;
+
+    private static final int MAX_TRANSITIONS = 50;
+
+    private int state = STATE_UNKNOWN;
+
+    private long startTime = -1;
+    private long fineSince = -1;
+    private long fineTime = 0;
+
+    private int transitionCount = 0;
+    private final List<String> transitions = new ArrayList<String>();
+
+    /**
+     * Re-evaluate the state with a newly accepted fix
+     * 
+     * @param time
+     *            Time of the fix in milliseconds
+     * @param distanceToEdge
+     *            Distance in meters from the fix to the nearest geofence edge
+     * @param radius
+     *            Radius of that geofence, or 0 if none is close enough to be known
+     * @param accuracy
+     *            Accuracy of the fix in meters
+     * @param eta
+     *            Predicted seconds until the edge is reached, or {@link EtaEstimator#UNKNOWN}
+     * @return true if the state changed and the providers need to be registered again
+     */
+    public boolean update(long time, float distanceToEdge, float radius, float accuracy, long eta) {
+        if (startTime == -1) {
+            startTime = time;
+        }
+
+        float ring = Math.max(MIN_APPROACH_MARGIN, radius) + accuracy;
+        boolean arriving = eta != EtaEstimator.UNKNOWN && eta < APPROACH_ETA;
+
+        int newState;
+        if (distanceToEdge < ring || arriving) {
+            newState = STATE_FINE;
+        } else if (state != STATE_COARSE && distanceToEdge < ring * EXIT_FACTOR) {
+            newState = STATE_FINE;
+        } else {
+            newState = STATE_COARSE;
+        }
+
+        if (newState == state) {
+            return false;
+        }
+
+        // time before the first fix counts as GPS time too, since it was on
+        if (newState == STATE_FINE || state == STATE_UNKNOWN) {
+            fineSince = (state == STATE_UNKNOWN) ? startTime : time;
+        }
+
+        if (state != STATE_COARSE && newState == STATE_COARSE) {
+            fineTime += time - fineSince;
+            fineSince = -1;
+        }
+
+        String reason = String.format("%s -> %s: %.0fm to edge, ring %.0fm%s",
+                getStateName(state), getStateName(newState), distanceToEdge, ring,
+                arriving ? ", arriving in " + eta + "s" : "");
+
+        if (transitions.size() == MAX_TRANSITIONS) {
+            transitions.remove(0);
+        }
+
+        transitions.add(reason);
+        transitionCount++;
+
+        state = newState;
+
+        return true;
+    }
+
+    /**
+     * @param radius
+     *            Radius of the geofence in meters
+     * @return radius of the approach ring for a perfectly accurate fix, for arming a platform
+     *         proximity alert before any tracking starts. Whatever fix sets the alert off is
+     *         inside the approach ring, so GPS comes straight up once tracking starts.
+     */
+    public static float getPreStageRadius(float radius) {
+        return radius + Math.max(MIN_APPROACH_MARGIN, radius);
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public boolean isGpsWanted() {
+        return state != STATE_COARSE;
+    }
+
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * @param now
+     *            Current time in milliseconds, on the same clock as the fixes
+     * @return milliseconds GPS has been wanted since the first fix
+     */
+    public long getGpsTime(long now) {
+        return (fineSince == -1) ? fineTime : fineTime + now - fineSince;
+    }
+
+    /**
+     * @param now
+     *            Current time in milliseconds, on the same clock as the fixes
+     * @return milliseconds since the first fix
+     */
+    public long getTrackingTime(long now) {
+        return (startTime == -1) ? 0 : now - startTime;
+    }
+
+    /**
+     * @return the reason for the most recent transition, or null if there hasn't been one
+     */
+    public String getLastTransition() {
+        return transitions.isEmpty() ? null : transitions.get(transitions.size() - 1);
+    }
+
+    /**
+     * @return the reasons for the most recent transitions, oldest first
+     */
+    public List<String> getTransitions() {
+        return transitions;
+    }
+
+    public static String getStateName(int state) {
+        switch (state) {
+            case STATE_COARSE:
+                return "coarse";
+            case STATE_FINE:
+                return "fine";
+            default:
+                return "unknown";
+        }
+    }
+}
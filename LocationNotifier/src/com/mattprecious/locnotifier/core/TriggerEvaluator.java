@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+/**
+ * The arrival decision: filters incoming fixes down to the best one, smooths it, and checks it
+ * against the registered geofences.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class TriggerEvaluator {
+    /** The fix wasn't better than the current best fix and was ignored */
+    public static final int RESULT_REJECTED = 0;
+
+    /** The fix became the new best fix but isn't inside any geofence */
+    public static final int RESULT_ACCEPTED = 1;
+
+    /** The fix became the new best fix and is inside a geofence */
+    public static final int RESULT_TRIGGERED = 2;
+
+    private final GeofenceRegistry registry;
+    private FixFilter filter;
+
+    private final Fix bestFix = new Fix();
+    private boolean hasBestFix = false;
+
+    private Fix smoothed;
+
+    private Geofence triggered;
+
+    public TriggerEvaluator(GeofenceRegistry registry) {
+        this(registry, new KalmanFixFilter());
+    }
+
+    public TriggerEvaluator(GeofenceRegistry registry, FixFilter filter) {
+        this.registry = registry;
+        this.filter = filter;
+    }
+
+    public int evaluate(Fix fix) {
+        if (!FixComparator.isBetter(fix, getBestFix())) {
+            return RESULT_REJECTED;
+        }
+
+        bestFix.set(fix);
+        hasBestFix = true;
+
+        smoothed = filter.filter(bestFix);
+
+        triggered = registry.findContaining(bestFix, smoothed);
+        return (triggered == null) ? RESULT_ACCEPTED : RESULT_TRIGGERED;
+    }
+
+    /**
+     * Checks the current best fix against the geofences again, for when they've changed
+     * 
+     * @return {@link #RESULT_REJECTED} if there is no best fix yet, otherwise
+     *         {@link #RESULT_ACCEPTED} or {@link #RESULT_TRIGGERED}
+     */
+    public int reevaluate() {
+        if (!hasBestFix) {
+            return RESULT_REJECTED;
+        }
+
+        triggered = registry.findContaining(bestFix, smoothed);
+        return (triggered == null) ? RESULT_ACCEPTED : RESULT_TRIGGERED;
+    }
+
+    /**
+     * @return the current best fix, or null if none has been accepted yet
+     */
+    public Fix getBestFix() {
+        return hasBestFix ? bestFix : null;
+    }
+
+    /**
+     * @return the geofence the best fix is inside, or null
+     */
+    public Geofence getTriggered() {
+        return triggered;
+    }
+
+    public void setFilter(FixFilter filter) {
+        this.filter = filter;
+        filter.reset();
+    }
+
+    public GeofenceRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012 Matthew Precious
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mattprecious.locnotifier.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts JSON events to a webhook from a single background thread. Events wait in a bounded
+ * queue; when it's full new events are dropped rather than blocking the caller. The worker
+ * collects whatever arrives within a short window into one batch, posted as a JSON array, and
+ * retries a failed batch with exponential backoff before giving up on it.
+ * 
+ * @author Matthew Precious
+ * 
+ */
+public class WebhookDispatcher {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_MAX_BATCH = 16;
+    public static final long DEFAULT_BATCH_WINDOW = 250;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_RETRY_BACKOFF = 1000;
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 10000;
+
+    private final URL url;
+    private final int maxBatch;
+    private final long batchWindow;
+    private final int maxAttempts;
+    private final long retryBackoff;
+
+    private final BlockingQueue<String> queue;
+    private final Thread worker;
+
+    // events taken off the queue but not yet sent or given up on, guarded by this
+    private int inFlight = 0;
+
+    private int sent = 0;
+    private int failed = 0;
+    private int dropped = 0;
+    private int batches = 0;
+    private int attempts = 0;
+
+    public WebhookDispatcher(URL url) {
+        this(url, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_BATCH_WINDOW, DEFAULT_MAX_ATTEMPTS,
+                DEFAULT_RETRY_BACKOFF);
+    }
+
+    /**
+     * @param batchWindow
+     *            Milliseconds to wait for more events after the first one of a batch
+     * @param retryBackoff
+     *            Milliseconds before the first retry, doubled for each one after
+     */
+    public WebhookDispatcher(URL url, int capacity, int maxBatch, long batchWindow,
+            int maxAttempts, long retryBackoff) {
+        this.url = url;
+        this.maxBatch = maxBatch;
+        this.batchWindow = batchWindow;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+
+        queue = new ArrayBlockingQueue<String>(capacity);
+
+        worker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                work();
+            }
+        }, "WebhookDispatcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @param json
+     *            A complete JSON value, sent as one element of a batch
+     * @return false if the queue was full and the event was dropped
+     */
+    public synchronized boolean enqueue(String json) {
+        if (!queue.offer(json)) {
+            dropped++;
+            return false;
+        }
+
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Waits until every queued event has been sent or given up on
+     * 
+     * @return false if that didn't happen within the timeout
+     */
+    public synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (inFlight > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops the worker. Anything still queued is dropped.
+     */
+    public void shutdown() {
+        worker.interrupt();
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public synchronized int getSent() {
+        return sent;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    public synchronized int getDropped() {
+        return dropped;
+    }
+
+    public synchronized int getBatches() {
+        return batches;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "sent=" + sent + " failed=" + failed + " dropped=" + dropped + " batches="
+                + batches + " attempts=" + attempts;
+    }
+
+    private void work() {
+        List<String> batch = new ArrayList<String>(maxBatch);
+
+        try {
+            while (true) {
+                batch.add(queue.take());
+
+                long deadline = System.currentTimeMillis() + batchWindow;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    String event = (remaining > 0) ? queue.poll(remaining, TimeUnit.MILLISECONDS)
+                            : queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+
+                    batch.add(event);
+                }
+
+                boolean delivered = deliver(toJsonArray(batch));
+
+                synchronized (this) {
+                    batches++;
+                    if (delivered) {
+                        sent += batch.size();
+                    } else {
+                        failed += batch.size();
+                    }
+
+                    inFlight -= batch.size();
+                    notifyAll();
+                }
+
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shut down
+        }
+    }
+
+    private boolean deliver(String body) throws InterruptedException {
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(retryBackoff << (attempt - 1));
+            }
+
+            synchronized (this) {
+                attempts++;
+            }
+
+            try {
+                int code = post(body);
+                if (code >= 200 && code < 300) {
+                    return true;
+                }
+
+                // the request itself is wrong, sending it again won't help
+                if (code >= 400 && code < 500 && code != 408 && code != 429) {
+                    return false;
+                }
+            } catch (IOException e) {
+                // try again
+            }
+        }
+
+        return false;
+    }
+
+    private int post(String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+
+            byte[] bytes = body.getBytes("UTF-8");
+            connection.setFixedLengthStreamingMode(bytes.length);
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+
+            int code = connection.getResponseCode();
+
+            // read the response out so the server sees the request finish cleanly
+            InputStream in = (code < 400) ? connection.getInputStream() : connection
+                    .getErrorStream();
+            if (in != null) {
+                try {
+                    byte[] buffer = new byte[512];
+                    while (in.read(buffer) != -1) {
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+
+            return code;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String toJsonArray(List<String> events) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+
+            builder.append(events.get(i));
+        }
+
+        return builder.append(']').toString();
+    }
+}